@@ -0,0 +1,144 @@
+import benchmarks.Targets;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Implementation of the benchmark targets over the project classes, in their default package.
+ */
+public class ProjectTargets implements Targets {
+
+    private final Analyzer analyzer;
+    private final Analyzer stemCacheAnalyzer;
+    private final SpanishNamesDetector names;
+    private final SpanishLocationsDetector locations;
+    private final EntityDetector entities;
+    private final DateDetector dates = new DateDetector();
+    private final SearchFiles engine;
+    private IndexReader reader;
+    private IndexSearcher searcher;
+
+    public ProjectTargets() throws IOException {
+        if (!Files.exists(Paths.get(SpanishNamesDetector.NAMES_FILE_PATH))) {
+            throw new IOException("The gazetteers are not found, run the benchmarks from the proyecto directory");
+        }
+        analyzer = new CustomAnalyzer();
+        stemCacheAnalyzer = new CustomAnalyzer(1 << 16);
+        names = new SpanishNamesDetector();
+        locations = new SpanishLocationsDetector();
+        entities = new EntityDetector();
+        engine = new SearchFiles(0, null);
+    }
+
+    @Override
+    public int analyze(String text) throws IOException {
+        return count(analyzer, text);
+    }
+
+    @Override
+    public int analyzeStemCache(String text) throws IOException {
+        return count(stemCacheAnalyzer, text);
+    }
+
+    private static int count(Analyzer analyzer, String text) throws IOException {
+        int tokens = 0;
+        try (TokenStream stream = analyzer.tokenStream("description", text)) {
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens++;
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+
+    @Override
+    public String normalize(String text) {
+        return Detector.normalize(text);
+    }
+
+    @Override
+    public boolean detectName(String token) {
+        return names.detect(token);
+    }
+
+    @Override
+    public boolean detectLocation(String token) {
+        return locations.detect(token);
+    }
+
+    @Override
+    public int scanEntities(String sentence) {
+        return entities.scan(sentence).size();
+    }
+
+    @Override
+    public Object detectDateRange(String sentence) {
+        return dates.getRangePattern(sentence);
+    }
+
+    @Override
+    public Object detectWorkType(String sentence) {
+        return TypeDetector.detectWorkType(sentence);
+    }
+
+    @Override
+    public Object prepareQuery(String sentence) throws IOException {
+        return engine.prepareQuery(sentence);
+    }
+
+    @Override
+    public int index(Path docs, Path index) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        int count = 0;
+        try (Directory dir = FSDirectory.open(index); IndexWriter writer = new IndexWriter(dir, iwc)) {
+            File[] files = docs.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Document doc = IndexFiles.parseDoc(file);
+                    if (doc != null) {
+                        writer.addDocument(doc);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void openIndex(Path index) throws IOException {
+        close();
+        reader = DirectoryReader.open(FSDirectory.open(index));
+        searcher = new IndexSearcher(reader);
+    }
+
+    @Override
+    public int search(String sentence, int depth) throws IOException {
+        return engine.searchNeed(searcher, sentence, depth).filenames.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Tokenization throughput of CustomAnalyzer over description-like texts, with and without its stem cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class AnalysisBenchmark {
+
+    @Param({"10", "200"})
+    public int words;
+
+    private Targets targets;
+    private String text;
+
+    @Setup
+    public void setup() throws IOException {
+        targets = Targets.load();
+        text = SyntheticCorpus.words(new Random(SyntheticCorpus.SEED), words);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        targets.close();
+    }
+
+    /**
+     * @return The number of tokens, so the analysis is not eliminated.
+     */
+    @Benchmark
+    public int analyze() throws IOException {
+        return targets.analyze(text);
+    }
+
+    @Benchmark
+    public int analyzeStemCache() throws IOException {
+        return targets.analyzeStemCache(text);
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Cost of the detectors over the sample needs: normalization, token lookups in the gazetteers, the entity scan
+ * of a whole sentence, the date and work type patterns, and the whole query that SearchFiles builds from them.
+ * Each operation covers every need or every token of the needs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class DetectorBenchmark {
+
+    private Targets targets;
+    private String[] tokens;
+
+    @Setup
+    public void setup() throws IOException {
+        targets = Targets.load();
+        tokens = String.join(" ", SyntheticCorpus.NEEDS).split(" ");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        targets.close();
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.normalize(need));
+        }
+    }
+
+    @Benchmark
+    public void detectNames(Blackhole bh) {
+        for (String token : tokens) {
+            bh.consume(targets.detectName(token));
+        }
+    }
+
+    @Benchmark
+    public void detectLocations(Blackhole bh) {
+        for (String token : tokens) {
+            bh.consume(targets.detectLocation(token));
+        }
+    }
+
+    @Benchmark
+    public void scanEntities(Blackhole bh) {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.scanEntities(need));
+        }
+    }
+
+    @Benchmark
+    public void detectDateRange(Blackhole bh) {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.detectDateRange(need));
+        }
+    }
+
+    @Benchmark
+    public void detectWorkType(Blackhole bh) {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.detectWorkType(need));
+        }
+    }
+
+    @Benchmark
+    public void prepareQuery(Blackhole bh) throws IOException {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.prepareQuery(need));
+        }
+    }
+}
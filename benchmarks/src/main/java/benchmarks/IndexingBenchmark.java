@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * End to end indexing of the synthetic collection, one file per record: parsing, analysis and writing into a new
+ * index each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class IndexingBenchmark {
+
+    @Param({"2000"})
+    public int records;
+
+    private Targets targets;
+    private Path work;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        targets = Targets.load();
+        work = Files.createTempDirectory("indexing-benchmark");
+        SyntheticCorpus.write(work.resolve("docs"), records);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        targets.close();
+        SyntheticCorpus.delete(work);
+    }
+
+    /**
+     * @return The number of indexed documents.
+     */
+    @Benchmark
+    public int index() throws IOException {
+        return targets.index(work.resolve("docs"), work.resolve("index"));
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Latency of SearchFiles answering the needs end to end over an index of the synthetic collection: query
+ * building, search and file names. Each operation covers every sample need.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class SearchBenchmark {
+
+    @Param({"5000"})
+    public int records;
+
+    /**
+     * Results of each need, 0 for all of them as in the batch runs.
+     */
+    @Param({"10", "0"})
+    public int depth;
+
+    private Targets targets;
+    private Path work;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        targets = Targets.load();
+        work = Files.createTempDirectory("search-benchmark");
+        SyntheticCorpus.write(work.resolve("docs"), records);
+        targets.index(work.resolve("docs"), work.resolve("index"));
+        targets.openIndex(work.resolve("index"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        targets.close();
+        SyntheticCorpus.delete(work);
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) throws IOException {
+        for (String need : SyntheticCorpus.NEEDS) {
+            bh.consume(targets.search(need, depth));
+        }
+    }
+}
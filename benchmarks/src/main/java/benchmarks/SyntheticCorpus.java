@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Generator of a synthetic collection of Dublin Core records like the ones of the university repository, and of
+ * information needs over it. The generator is seeded, so every run and every commit measures the same data.
+ */
+public final class SyntheticCorpus {
+
+    public static final long SEED = 764429L;
+
+    private static final String[] WORDS = {"energía", "química", "agua", "sensores", "bioinformática", "medicina",
+            "ingeniería", "computacional", "caciquismo", "dictadura", "parkinson", "política", "renovable", "biología",
+            "informática", "enfermedades", "aprendizaje", "represión", "diagnóstico", "literatura", "historia", "arte",
+            "economía", "datos", "filogenética", "crisis", "siglo", "robótica", "evolución", "análisis", "sistemas",
+            "redes", "modelo", "estudio", "desarrollo", "social", "territorio", "patrimonio", "arquitectura",
+            "derecho", "educación", "turismo", "genética", "alzheimer", "neurodegenerativas", "biomédica"};
+    private static final String[] PLACES = {"Zaragoza", "Huesca", "Teruel", "España", "Aragón", "Francia",
+            "Portugal", "Cataluña"};
+    private static final String[] NAMES = {"María", "Javier", "Pedro", "Lucía", "Carmen", "Antonio", "Elena",
+            "Pablo"};
+    private static final String[] SURNAMES = {"López", "García", "Martínez", "Sánchez", "Pérez", "Gómez",
+            "Ruiz", "Gascón"};
+    private static final String[] TYPES = {"TAZ-TFG", "TAZ-TFM", "TESIS", "info:eu-repo/semantics/article"};
+
+    /**
+     * Needs shaped like the ones of the course, with names, places, types and date ranges.
+     */
+    public static final String[] NEEDS = {
+            "¿Qué trabajos o tesis existen sobre el caciquismo, la dictadura, o la represión política relacionados"
+                    + " con Huesca, o en su defecto España, y centrados si es posible en el siglo XX?",
+            "¿Qué trabajos relacionados con la Ingeniería Biomédica se han desarrollado preferentemente en un"
+                    + " Departamento de Ingeniería sobre el diagnóstico de enfermedades neurodegenerativas?",
+            "Análisis de la evolución económica de España desde la crisis de 2008 hasta 2019 en relación con los"
+                    + " diferentes partidos políticos que han gobernado el país durante este periodo.",
+            "Estoy interesado en trabajos académicos sobre Bioinformática o Filogenética, publicados entre 2010"
+                    + " y 2018.",
+            "Busco Trabajos de Fin de Grado de los últimos 8 años en español. Deben ser del campo de la informática"
+                    + " realizados o dirigidos por un alguien llamado Javier.",
+            "Tesis doctorales sobre robótica y sensores en Zaragoza dirigidas por María López."
+    };
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * Writes a collection of records, one XML file per record.
+     * @param dir Directory of the collection, created if it does not exist.
+     * @param records Number of records.
+     * @throws IOException If a file can not be written
+     */
+    public static void write(Path dir, int records) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(SEED);
+        for (int i = 0; i < records; i++) {
+            Path file = dir.resolve("oai_zaguan.unizar.es_" + i + ".xml");
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<oai_dc:dc"
+                        + " xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                        + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+                element(out, "title", words(random, 6));
+                element(out, "creator", person(random));
+                element(out, "contributor", person(random));
+                element(out, "subject", words(random, 1));
+                element(out, "subject", words(random, 1));
+                element(out, "description", words(random, 30) + " " + PLACES[random.nextInt(PLACES.length)]
+                        + " " + words(random, 10));
+                element(out, "publisher", "Universidad de Zaragoza");
+                element(out, "date", String.valueOf(1995 + random.nextInt(27)));
+                element(out, "type", TYPES[random.nextInt(TYPES.length)]);
+                element(out, "language", "spa");
+                out.write("</oai_dc:dc>\n");
+            }
+        }
+    }
+
+    /**
+     * Text of the given number of random words, for the analysis benchmarks.
+     * @param random Seeded source of the words.
+     * @param count Number of words.
+     * @return The words separated by spaces.
+     */
+    public static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String person(Random random) {
+        return SURNAMES[random.nextInt(SURNAMES.length)] + ", " + NAMES[random.nextInt(NAMES.length)];
+    }
+
+    private static void element(Writer out, String name, String text) throws IOException {
+        out.write("<dc:" + name + ">" + text + "</dc:" + name + ">\n");
+    }
+
+    /**
+     * Deletes a directory tree created by the benchmarks.
+     * @param dir Directory to delete, which may not exist.
+     * @throws IOException If a file can not be deleted
+     */
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
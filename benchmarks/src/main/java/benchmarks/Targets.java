@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Hot paths of the project measured by the benchmarks. The project classes live in the default package, which
+ * named packages can not import and JMH does not accept for benchmarks, so they are reached through this interface
+ * and its implementation ProjectTargets, which is compiled in the default package. The calls are monomorphic and
+ * get inlined like direct calls.
+ */
+public interface Targets extends Closeable {
+
+    /**
+     * Loads the implementation over the project classes. The gazetteers are read from the working directory.
+     * @return The targets, with the analyzer and the detectors loaded.
+     * @throws IOException If the project data can not be loaded
+     */
+    static Targets load() throws IOException {
+        try {
+            return (Targets) Class.forName("ProjectTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The number of tokens of the text analyzed by CustomAnalyzer.
+     */
+    int analyze(String text) throws IOException;
+
+    /**
+     * @return The number of tokens of the text analyzed by a CustomAnalyzer with a stem cache.
+     */
+    int analyzeStemCache(String text) throws IOException;
+
+    String normalize(String text);
+
+    /**
+     * @return true if SpanishNamesDetector detects the token.
+     */
+    boolean detectName(String token);
+
+    /**
+     * @return true if SpanishLocationsDetector detects the token.
+     */
+    boolean detectLocation(String token);
+
+    /**
+     * @return The number of entities found by EntityDetector in one pass over the sentence.
+     */
+    int scanEntities(String sentence);
+
+    /**
+     * @return The range of DateDetector, or null.
+     */
+    Object detectDateRange(String sentence);
+
+    /**
+     * @return The work types of TypeDetector.
+     */
+    Object detectWorkType(String sentence);
+
+    /**
+     * @return The query built by SearchFiles for the need.
+     */
+    Object prepareQuery(String sentence) throws IOException;
+
+    /**
+     * Indexes a collection as IndexFiles does, into a new index, without its progress output.
+     * @return The number of indexed documents.
+     */
+    int index(Path docs, Path index) throws IOException;
+
+    /**
+     * Opens the index searched by search.
+     */
+    void openIndex(Path index) throws IOException;
+
+    /**
+     * Searches a need as SearchFiles does, file names included.
+     * @return The number of results.
+     */
+    int search(String sentence, int depth) throws IOException;
+}
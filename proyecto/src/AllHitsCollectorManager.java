@@ -0,0 +1,174 @@
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Collector of all the hits of a query, for the searches without a result depth. The query is run once and each
+ * slice keeps the doc id and score of its hits segment by segment; as their number is then known, the hits are
+ * ranked by a top docs collector of that exact size, which replays them in doc id order, so the ranking is the
+ * same as that of a search of all the hits, ties included.
+ */
+public class AllHitsCollectorManager implements CollectorManager<AllHitsCollectorManager.HitsCollector, TopDocs> {
+
+    private final Sort sort;
+
+    /**
+     * @param sort Order of the results, or null to sort them by score.
+     */
+    public AllHitsCollectorManager(Sort sort) {
+        this.sort = sort;
+    }
+
+    @Override
+    public HitsCollector newCollector() {
+        return new HitsCollector();
+    }
+
+    @Override
+    public TopDocs reduce(Collection<HitsCollector> collectors) throws IOException {
+        List<SegmentHits> segments = new ArrayList<>();
+        int total = 0;
+        for (HitsCollector collector : collectors) {
+            for (SegmentHits segment : collector.segments) {
+                segments.add(segment);
+                total += segment.count;
+            }
+        }
+        segments.sort(Comparator.comparingInt(segment -> segment.context.docBase));
+
+        int numHits = Math.max(1, total);
+        TopDocsCollector<?> ranking = sort == null
+                ? TopScoreDocCollector.create(numHits, Integer.MAX_VALUE)
+                : TopFieldCollector.create(sort, numHits, Integer.MAX_VALUE);
+        ReplayedScore scorer = new ReplayedScore();
+        for (SegmentHits segment : segments) {
+            LeafCollector leaf = ranking.getLeafCollector(segment.context);
+            leaf.setScorer(scorer);
+            for (int i = 0; i < segment.count; i++) {
+                scorer.doc = segment.docs[i];
+                scorer.score = segment.scores[i];
+                leaf.collect(scorer.doc);
+            }
+        }
+        TopDocs results = ranking.topDocs();
+        if (sort != null) {
+            // a field sort does not keep the scores, but they were collected with the hits
+            for (ScoreDoc hit : results.scoreDocs) {
+                hit.score = scoreOf(segments, hit.doc);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return The collected score of a hit.
+     */
+    private static float scoreOf(List<SegmentHits> segments, int doc) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).context.docBase <= doc) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        SegmentHits segment = segments.get(low);
+        int i = Arrays.binarySearch(segment.docs, 0, segment.count, doc - segment.context.docBase);
+        return segment.scores[i];
+    }
+
+    /**
+     * Collector of the hits of a slice.
+     */
+    public static final class HitsCollector implements Collector {
+        private final List<SegmentHits> segments = new ArrayList<>();
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) {
+            SegmentHits segment = new SegmentHits(context);
+            segments.add(segment);
+            return new LeafCollector() {
+                private Scorable scorer;
+
+                @Override
+                public void setScorer(Scorable scorer) {
+                    this.scorer = scorer;
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    segment.add(doc, scorer.score());
+                }
+            };
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE;
+        }
+    }
+
+    /**
+     * Hits of a segment in doc id order.
+     */
+    private static final class SegmentHits {
+        final LeafReaderContext context;
+        int[] docs = new int[16];
+        float[] scores = new float[16];
+        int count;
+
+        SegmentHits(LeafReaderContext context) {
+            this.context = context;
+        }
+
+        void add(int doc, float score) {
+            if (count == docs.length) {
+                docs = ArrayUtil.grow(docs, count + 1);
+                scores = ArrayUtil.growExact(scores, docs.length);
+            }
+            docs[count] = doc;
+            scores[count] = score;
+            count++;
+        }
+    }
+
+    /**
+     * Score of the hit being replayed.
+     */
+    private static final class ReplayedScore extends Scorable {
+        int doc;
+        float score;
+
+        @Override
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Builds the per field queries of the information needs from analyzed terms. The text is analyzed once and the
+ * same terms are used for every field, which is valid because CustomAnalyzer does not depend on the field name.
+ * The terms of short texts such as the detected entities are cached. Instances are thread safe and meant to be
+ * reused across needs.
+ */
+public class AnalyzedQueryBuilder {
+
+    private static final String ANALYSIS_FIELD = "description";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final Analyzer analyzer;
+    private final int cacheSize;
+    // access ordered, so the least recently used text is the eldest entry; guarded by itself
+    private final LinkedHashMap<String, String[]> cache;
+
+    public AnalyzedQueryBuilder(Analyzer analyzer) {
+        this(analyzer, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param analyzer Analyzer of the indexed fields.
+     * @param cacheSize Maximum number of cached texts. The least recently used one is evicted when it is full.
+     */
+    public AnalyzedQueryBuilder(Analyzer analyzer, int cacheSize) {
+        this.analyzer = analyzer;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > AnalyzedQueryBuilder.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Analyzes a text.
+     * @param text Text to analyze.
+     * @return The terms of the text in order, repeated terms included.
+     * @throws IOException If the analysis fails
+     */
+    public String[] analyze(String text) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(ANALYSIS_FIELD, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    /**
+     * Analyzes a short text which is expected to repeat, such as an entity name.
+     * @param text Text to analyze.
+     * @return The terms of the text in order. The array is shared and must not be modified.
+     * @throws IOException If the analysis fails
+     */
+    public String[] analyzeCached(String text) throws IOException {
+        String[] terms;
+        synchronized (cache) {
+            terms = cache.get(text);
+        }
+        if (terms == null) {
+            // analyzed without the lock, so two threads missing the same text both analyze it
+            terms = analyze(text);
+            synchronized (cache) {
+                cache.put(text, terms);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Builds the query of some terms in a field: a term query for each term, any of which can match.
+     * @param field Field to search.
+     * @param terms Analyzed terms.
+     * @return The query of the terms.
+     */
+    public static Query fieldQuery(String field, String[] terms) {
+        if (terms.length == 1) {
+            return new TermQuery(new Term(field, terms[0]));
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String term : terms) {
+            builder.add(new TermQuery(new Term(field, term)), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+}
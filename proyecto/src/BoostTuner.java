@@ -0,0 +1,277 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Tuning of the weights of SearchFiles by grid or random search, scored by the MAP of the relevance judgments.
+ * The needs are analyzed once and only their queries are rebuilt for every candidate, the file names of the whole
+ * index are resolved once, and the candidates are searched in parallel over one shared reader.
+ */
+public class BoostTuner {
+
+    private static final int TOP = 10;
+
+    private final IndexSearcher searcher;
+    private final BytesRef[] filenames;
+    private final Evaluation evaluation;
+    private final List<String> needIds = new ArrayList<>();
+    private final List<SearchFiles.NeedComponents> needs = new ArrayList<>();
+    private final int depth;
+
+    /**
+     * @param reader     Reader of the index, shared by all the candidates.
+     * @param evaluation Relevance judgments of the needs.
+     * @param depth      Number of results of each need, or 0 for all of them.
+     * @throws IOException If the file names can not be read
+     */
+    BoostTuner(IndexReader reader, Evaluation evaluation, int depth) throws IOException {
+        this.searcher = new IndexSearcher(reader);
+        this.evaluation = evaluation;
+        this.depth = depth;
+        ScoreDoc[] all = new ScoreDoc[reader.maxDoc()];
+        for (int doc = 0; doc < all.length; doc++) {
+            all[doc] = new ScoreDoc(doc, 0);
+        }
+        filenames = FilenameResolver.resolve(reader, all);
+    }
+
+    /**
+     * Analyzes the information needs of a needs file, once for all the candidates.
+     * @param infoNeedsPath Path of the needs file.
+     * @throws IOException If the file can not be read
+     * @throws ParserConfigurationException
+     * @throws SAXException If the file is not valid XML
+     */
+    void loadNeeds(String infoNeedsPath) throws IOException, ParserConfigurationException, SAXException {
+        SearchFiles engine = new SearchFiles(depth, null);
+        org.w3c.dom.Document dc;
+        try (InputStream in = Files.newInputStream(Paths.get(infoNeedsPath))) {
+            dc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        }
+        NodeList nl = dc.getElementsByTagName("informationNeed");
+        for (int i = 0; i < nl.getLength(); i++) {
+            Element need = (Element) nl.item(i);
+            needIds.add(need.getElementsByTagName("identifier").item(0).getTextContent());
+            needs.add(engine.analyzeNeed(need.getElementsByTagName("text").item(0).getTextContent()));
+        }
+    }
+
+    /**
+     * Searches every need with the weights of a candidate.
+     * @param weights Weights of the candidate.
+     * @return The MAP of the candidate.
+     * @throws IOException If the index can not be searched
+     */
+    double score(SearchWeights weights) throws IOException {
+        Evaluation.Run run = evaluation.newRun();
+        for (int i = 0; i < needs.size(); i++) {
+            Query query = SearchFiles.buildQuery(needs.get(i), weights);
+            TopDocs results = depth > 0
+                    ? searcher.search(query, depth) : searcher.search(query, new AllHitsCollectorManager(null));
+            String needId = needIds.get(i);
+            for (ScoreDoc hit : results.scoreDocs) {
+                run.add(needId, filenames[hit.doc]);
+            }
+        }
+        return run.meanAveragePrecision();
+    }
+
+    /**
+     * Scores the candidates, in parallel when there is more than one thread.
+     * @param candidates Weights to score.
+     * @param threads    Number of candidates scored at the same time.
+     * @return The results sorted from the best MAP.
+     * @throws IOException If the index can not be searched
+     */
+    List<Result> tune(List<SearchWeights> candidates, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Double>> scores = new ArrayList<>();
+            for (SearchWeights candidate : candidates) {
+                scores.add(pool.submit(() -> score(candidate)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                results.add(new Result(candidates.get(i), scores.get(i).get()));
+            }
+            // stable, so ties keep the candidate order and the base weights win them
+            results.sort(Comparator.comparingDouble((Result r) -> r.map).reversed());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Weights of a candidate together with its MAP.
+     */
+    static final class Result {
+        final SearchWeights weights;
+        final double map;
+
+        Result(SearchWeights weights, double map) {
+            this.weights = weights;
+            this.map = map;
+        }
+    }
+
+    /**
+     * Every combination of the values of the grid over the base weights. The weights out of the grid keep their
+     * base value.
+     */
+    static List<SearchWeights> grid(SearchWeights base, Map<SearchWeights.Weight, float[]> values) {
+        List<SearchWeights> candidates = new ArrayList<>();
+        candidates.add(base);
+        for (Map.Entry<SearchWeights.Weight, float[]> axis : values.entrySet()) {
+            List<SearchWeights> next = new ArrayList<>();
+            for (SearchWeights candidate : candidates) {
+                for (float value : axis.getValue()) {
+                    next.add(candidate.with(axis.getKey(), value));
+                }
+            }
+            candidates = next;
+        }
+        return candidates;
+    }
+
+    /**
+     * Random candidates around the base weights. Each weight is drawn from its grid values when it has them, and
+     * otherwise between a quarter and four times its base value.
+     */
+    static List<SearchWeights> random(SearchWeights base, Map<SearchWeights.Weight, float[]> values, int count,
+                                      long seed) {
+        Random random = new Random(seed);
+        List<SearchWeights> candidates = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SearchWeights candidate = base;
+            for (SearchWeights.Weight weight : SearchWeights.Weight.values()) {
+                float[] axis = values.get(weight);
+                float value = axis != null ? axis[random.nextInt(axis.length)]
+                        : (float) (base.get(weight) * Math.pow(4, 2 * random.nextDouble() - 1));
+                candidate = candidate.with(weight, value);
+            }
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage:\tBoostTuner -index INDEX_DIR_PATH -infoNeeds INFO_NEEDS_FILE_PATH -qrels QRELS_FILE_PATH"
+                + " [-weights WEIGHTS_FILE_PATH] [-grid WEIGHT=V1,V2,...]... [-random N] [-seed S] [-threads N]"
+                + " [-k DEPTH] [-output WEIGHTS_FILE_PATH]\n\n"
+                + "Searches the needs with every candidate weights and reports the best ones by MAP. Without -random\n"
+                + "the candidates are every combination of the -grid values, and with it N random candidates whose\n"
+                + "weights are drawn from the -grid values or around the base weights. The weights are named as in\n"
+                + "the -weights file of SearchFiles, and -output writes the best ones in that format.";
+        String indexPath = null;
+        String infoNeedsPath = null;
+        String qrelsPath = null;
+        String outputPath = null;
+        SearchWeights base = SearchWeights.defaults();
+        Map<SearchWeights.Weight, float[]> values = new EnumMap<>(SearchWeights.Weight.class);
+        int randomCount = 0;
+        long seed = 764429L;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int depth = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("-index".equals(args[i])) {
+                indexPath = args[++i];
+            } else if ("-infoNeeds".equals(args[i])) {
+                infoNeedsPath = args[++i];
+            } else if ("-qrels".equals(args[i])) {
+                qrelsPath = args[++i];
+            } else if ("-weights".equals(args[i])) {
+                base = SearchWeights.load(Paths.get(args[++i]));
+            } else if ("-grid".equals(args[i])) {
+                String[] axis = args[++i].split("=", 2);
+                String[] numbers = axis[1].split(",");
+                float[] axisValues = new float[numbers.length];
+                for (int j = 0; j < numbers.length; j++) {
+                    axisValues[j] = Float.parseFloat(numbers[j].trim());
+                }
+                values.put(SearchWeights.Weight.ofKey(axis[0]), axisValues);
+            } else if ("-random".equals(args[i])) {
+                randomCount = Integer.parseInt(args[++i]);
+            } else if ("-seed".equals(args[i])) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-k".equals(args[i])) {
+                depth = Integer.parseInt(args[++i]);
+            } else if ("-output".equals(args[i])) {
+                outputPath = args[++i];
+            }
+        }
+        if (indexPath == null || infoNeedsPath == null || qrelsPath == null) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        // the base weights are always scored, so the report tells whether the best ones improve them
+        Set<SearchWeights> candidates = new LinkedHashSet<>();
+        candidates.add(base);
+        candidates.addAll(randomCount > 0 ? random(base, values, randomCount, seed) : grid(base, values));
+
+        long start = System.currentTimeMillis();
+        List<Result> results;
+        try (IndexReader reader = Shards.open(Paths.get(indexPath))) {
+            BoostTuner tuner = new BoostTuner(reader, Evaluation.load(Paths.get(qrelsPath), Evaluation.DEFAULT_CUTOFF), depth);
+            tuner.loadNeeds(infoNeedsPath);
+            results = tuner.tune(new ArrayList<>(candidates), threads);
+        }
+        System.out.println(candidates.size() + " candidates scored in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        double baseMap = 0;
+        for (Result result : results) {
+            if (result.weights.equals(base)) {
+                baseMap = result.map;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "base MAP %.6f", baseMap));
+        for (int i = 0; i < Math.min(TOP, results.size()); i++) {
+            Result result = results.get(i);
+            System.out.println(String.format(Locale.ROOT, "%d. MAP %.6f", i + 1, result.map));
+            System.out.print(result.weights);
+        }
+        if (outputPath != null) {
+            results.get(0).weights.store(Paths.get(outputPath));
+        }
+    }
+}
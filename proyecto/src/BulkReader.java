@@ -0,0 +1,192 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * This class reads the records of a bulk container: an OAI-PMH ListRecords response or a line-doc file, optionally
+ * gzip compressed. The records are streamed one by one, so a harvest of any size is indexed with a single open
+ * file. Each record gets the path of a file named as the record inside the container, so its results look like the
+ * ones of the collection stored one file per record. The path depends on the name of the container, so the records
+ * are identified by their name alone, in the id field, which is what updates and deletions match: a record harvested
+ * again in a container of another name replaces its previous version.
+ *
+ * A line-doc file has a header line with the tab separated names of its columns, and then one record per line. The
+ * column filename, or else identifier, names the record, and the other columns are the Dublin Core fields by their
+ * index name: title, subject, description, contributor, creator, date, type and publisher. Tabs and line breaks
+ * inside the values must be replaced by spaces, and empty values are not indexed.
+ */
+public class BulkReader {
+
+    /**
+     * Receives the records of a container.
+     */
+    public interface RecordHandler {
+        /**
+         * @param id Name of the record, the value of its id field, which does not depend on the container.
+         * @param file Path of the record, a file named as the record inside the container.
+         * @param doc Document of the record, or null if the record was deleted from the repository.
+         * @throws IOException If there is a low-level I/O error
+         */
+        void record(String id, File file, Document doc) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String FILENAME_COLUMN = "filename";
+    private static final String IDENTIFIER_COLUMN = "identifier";
+
+    private BulkReader() {
+    }
+
+    /**
+     * Reads all the records of a container. The format and the compression are detected from the content.
+     * @param container The container file.
+     * @param handler Receives each record in the order of the container.
+     * @throws IOException If there is a low-level I/O error or the container is not valid
+     */
+    public static void read(File container, RecordHandler handler) throws IOException {
+        try (InputStream in = open(container)) {
+            if (firstByte(in) == '<') {
+                readRecords(container, in, handler);
+            } else {
+                readLines(container, in, handler);
+            }
+        }
+    }
+
+    /**
+     * Opens a container, decompressing it if it starts with the gzip magic number.
+     */
+    private static InputStream open(File container) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(container), BUFFER_SIZE);
+        in.mark(2);
+        int magic = in.read() | (in.read() << 8);
+        in.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * First byte of a stream which is not white space nor a byte order mark. The stream is not consumed.
+     */
+    private static int firstByte(InputStream in) throws IOException {
+        in.mark(BUFFER_SIZE);
+        int b;
+        do {
+            b = in.read();
+        } while (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0xEF || b == 0xBB || b == 0xBF);
+        in.reset();
+        return b;
+    }
+
+    private static void readRecords(File container, InputStream in, RecordHandler handler) throws IOException {
+        try {
+            DublinCoreParser.get().parseRecords(in, (identifier, doc) -> {
+                if (identifier == null || identifier.isEmpty()) {
+                    System.err.println("skipping a record without identifier in " + container);
+                    return;
+                }
+                String id = filename(identifier);
+                File file = new File(container, id);
+                if (doc != null) {
+                    IndexFiles.addPathFields(doc, file);
+                    doc.add(new StringField(IndexFiles.ID_FIELD, id, Field.Store.NO));
+                }
+                handler.record(id, file, doc);
+            });
+        } catch (SAXException e) {
+            throw new IOException("Invalid OAI-PMH container " + container, e);
+        }
+    }
+
+    private static void readLines(File container, InputStream in, RecordHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        String header = reader.readLine();
+        if (header == null) {
+            return;
+        }
+        String[] columns = header.split("\t", -1);
+        int filenameColumn = -1;
+        int identifierColumn = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (FILENAME_COLUMN.equals(columns[i])) {
+                filenameColumn = i;
+            } else if (IDENTIFIER_COLUMN.equals(columns[i])) {
+                identifierColumn = i;
+            }
+        }
+        if (filenameColumn < 0 && identifierColumn < 0) {
+            throw new IOException("The line-doc header of " + container + " has no " + FILENAME_COLUMN
+                    + " or " + IDENTIFIER_COLUMN + " column");
+        }
+
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = split(line, columns.length);
+            String name = filenameColumn >= 0 ? values[filenameColumn] : filename(values[identifierColumn]);
+            if (name == null || name.isEmpty()) {
+                System.err.println("skipping line " + lineNumber + " without name in " + container);
+                continue;
+            }
+            File file = new File(container, name);
+            Document doc = new Document();
+            IndexFiles.addPathFields(doc, file);
+            doc.add(new StringField(IndexFiles.ID_FIELD, name, Field.Store.NO));
+            for (int i = 0; i < columns.length; i++) {
+                if (i != filenameColumn && i != identifierColumn && values[i] != null && !values[i].isEmpty()) {
+                    DublinCoreParser.addField(doc, columns[i], values[i]);
+                }
+            }
+            handler.record(name, file, doc);
+        }
+    }
+
+    /**
+     * Splits a line by tabs. Missing trailing columns are null and extra columns are ignored.
+     */
+    private static String[] split(String line, int columns) {
+        String[] values = new String[columns];
+        int start = 0;
+        for (int i = 0; i < columns && start <= line.length(); i++) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            values[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        return values;
+    }
+
+    /**
+     * Name of the file of a record harvested by its OAI identifier, such as oai_zaguan.unizar.es_1268.xml for
+     * oai:zaguan.unizar.es:1268.
+     * @param identifier OAI identifier of the record.
+     * @return The file name, or null if there is no identifier.
+     */
+    public static String filename(String identifier) {
+        if (identifier == null || identifier.isEmpty()) {
+            return null;
+        }
+        return identifier.replace(':', '_').replace('/', '_') + ".xml";
+    }
+}
@@ -0,0 +1,195 @@
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.es.SpanishLightStemmer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Stemming filter with the same output as SpanishLightStemFilter which remembers the stem of each term. The stems
+ * are kept in a Cache shared by all the token streams of an analyzer, so the repeated vocabulary of the collection
+ * is stemmed once for all the indexing threads. CustomAnalyzer uses it instead of SpanishLightStemFilter when it is
+ * given a cache size; AnalysisBenchmark measures both chains.
+ */
+public final class CachingStemFilter extends TokenFilter {
+
+    private final SpanishLightStemmer stemmer = new SpanishLightStemmer();
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAttr = addAttribute(KeywordAttribute.class);
+    private final Cache cache;
+    // counted here and added to the shared counters at the end of the stream
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param input Stream of lower case terms.
+     * @param cache Stems shared with the other streams of the analyzer.
+     */
+    public CachingStemFilter(TokenStream input, Cache cache) {
+        super(input);
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken()) {
+            return false;
+        }
+        if (!keywordAttr.isKeyword()) {
+            switch (cache.stem(termAtt, stemmer)) {
+                case Cache.HIT:
+                    hits++;
+                    break;
+                case Cache.EVICTION:
+                    // an eviction is also a miss
+                    evictions++;
+                    misses++;
+                    break;
+                case Cache.MISS:
+                    misses++;
+                    break;
+                default:
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        cache.count(hits, misses, evictions);
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Bounded map from terms to their stems, safe for concurrent use without locks. It is a direct-mapped table:
+     * each term has a single slot, given by its hash, holding an immutable entry with the term and its stem. The
+     * final fields of the entries make them safe to read from any thread, and a race between two threads only
+     * costs a miss. A term which takes an occupied slot evicts its entry.
+     */
+    public static final class Cache {
+        // longer terms are rare and are stemmed without the cache
+        private static final int MAX_TERM_LENGTH = 32;
+        static final int HIT = 0;
+        static final int MISS = 1;
+        static final int EVICTION = 2;
+        static final int UNCACHED = 3;
+
+        private final Entry[] slots;
+        private final int mask;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        /**
+         * @param capacity Maximum number of terms kept, rounded up to a power of two.
+         */
+        public Cache(int capacity) {
+            int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            slots = new Entry[size];
+            mask = size - 1;
+        }
+
+        /**
+         * Replaces a term by its stem.
+         * @param term Term to stem.
+         * @param stemmer Stemmer of the calling stream, used on a miss.
+         * @return HIT, MISS, EVICTION if the miss took the slot of another term, or UNCACHED for long terms.
+         */
+        int stem(CharTermAttribute term, SpanishLightStemmer stemmer) {
+            char[] buffer = term.buffer();
+            int length = term.length();
+            if (length > MAX_TERM_LENGTH) {
+                term.setLength(stemmer.stem(buffer, length));
+                return UNCACHED;
+            }
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            Entry entry = slots[slot];
+            if (entry != null && entry.hash == hash && entry.matches(buffer, length)) {
+                // a stem is never longer than its term, so the buffer does not grow
+                System.arraycopy(entry.stem, 0, buffer, 0, entry.stem.length);
+                term.setLength(entry.stem.length);
+                return HIT;
+            }
+            char[] key = Arrays.copyOf(buffer, length);
+            int stemLength = stemmer.stem(buffer, length);
+            term.setLength(stemLength);
+            slots[slot] = new Entry(hash, key, Arrays.copyOf(buffer, stemLength));
+            return entry == null ? MISS : EVICTION;
+        }
+
+        void count(long hits, long misses, long evictions) {
+            this.hits.add(hits);
+            this.misses.add(misses);
+            this.evictions.add(evictions);
+        }
+
+        public long hits() {
+            return hits.sum();
+        }
+
+        public long misses() {
+            return misses.sum();
+        }
+
+        public long evictions() {
+            return evictions.sum();
+        }
+
+        public int size() {
+            int size = 0;
+            for (Entry entry : slots) {
+                if (entry != null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            long hits = hits();
+            long lookups = hits + misses();
+            return String.format(Locale.ROOT, "stem cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, "
+                            + "%d entries", hits, misses(), lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                    evictions(), size());
+        }
+    }
+
+    private static final class Entry {
+        final int hash;
+        final char[] term;
+        final char[] stem;
+
+        Entry(int hash, char[] term, char[] stem) {
+            this.hash = hash;
+            this.term = term;
+            this.stem = stem;
+        }
+
+        boolean matches(char[] buffer, int length) {
+            if (term.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (term[i] != buffer[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
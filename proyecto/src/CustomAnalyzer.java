@@ -22,19 +22,37 @@ import java.nio.charset.StandardCharsets;
  */
 public final class CustomAnalyzer extends StopwordAnalyzerBase {
 
+    private final CachingStemFilter.Cache stemCache;
+
     public static CharArraySet getDefaultStopSet() throws IOException {
         return WordlistLoader.getSnowballWordSet(IOUtils.getDecodingReader(SnowballFilter.class, "spanish_stop.txt", StandardCharsets.UTF_8));
     }
 
     public CustomAnalyzer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param stemCacheSize Number of stems remembered by the analyzer, or 0 to stem every term.
+     * @throws IOException If the stop words can not be read
+     */
+    public CustomAnalyzer(int stemCacheSize) throws IOException {
         super(getDefaultStopSet());
+        stemCache = stemCacheSize > 0 ? new CachingStemFilter.Cache(stemCacheSize) : null;
+    }
+
+    /**
+     * @return The stems remembered by the analyzer, or null if it has no cache.
+     */
+    public CachingStemFilter.Cache getStemCache() {
+        return stemCache;
     }
 
     protected TokenStreamComponents createComponents(String fieldName) {
         Tokenizer source = new StandardTokenizer();
         TokenStream result = new LowerCaseFilter(source);
         result = new StopFilter(result, this.stopwords);
-        result = new SpanishLightStemFilter(result);
+        result = stemCache == null ? new SpanishLightStemFilter(result) : new CachingStemFilter(result, stemCache);
         return new TokenStreamComponents(source, result);
     }
 
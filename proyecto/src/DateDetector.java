@@ -1,9 +1,3 @@
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * @author Martín Gascón 764429
  * @author Eduardo Ruiz  764539
@@ -11,8 +5,9 @@ import java.util.regex.Pattern;
  */
 public class DateDetector {
 
-    public String PUBLISHED_RANGE_PATTERN = "(publicados|realizados) entre (el año|los años) (\\d\\d\\d\\d) y (\\d\\d\\d\\d)";
-    public final String LAST_N_YEARS_PATTERN = "(publicados|realizados) en los últimos \\d+ años";
+    static final String PUBLISHED_RANGE_PATTERN =
+            "(?:publicados|realizados) entre (?:el año|los años) (?<rangeBegin>\\d\\d\\d\\d) y (?<rangeEnd>\\d\\d\\d\\d)";
+    static final String LAST_N_YEARS_PATTERN = "(?:publicados|realizados) en los últimos (?<lastYears>\\d+) años";
 
     public DateDetector() {
     }
@@ -24,22 +19,18 @@ public class DateDetector {
      * @return A date range composed by a init year and a end year.
      */
     public Range getRangePattern(String sentence){
-        Pattern rangePattern=Pattern.compile(PUBLISHED_RANGE_PATTERN);
-        Matcher matcher=rangePattern.matcher(sentence);
-       if(matcher.find()){
-            matcher.group(1);
-           return new Range(Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)));
-        }
-
-       Pattern lastYearsPattern=Pattern.compile(LAST_N_YEARS_PATTERN);
-       Matcher lastYearsMatcher=lastYearsPattern.matcher(sentence);
-
-       if(lastYearsMatcher.find()) {
-           int offset = Integer.parseInt(matcher.group(1));
-           int currentYear = Calendar.getInstance().get(Calendar.YEAR);
-           return  new Range(currentYear - offset, currentYear);
-       }
+        return getRange(QueryIntent.recognize(sentence, new QueryIntent()));
+    }
 
+    /**
+     * Date range of a sentence whose intents were already recognized, so it is not scanned again.
+     * @param intent Intents of the sentence.
+     * @return A date range composed by a init year and a end year, or null if the sentence has none.
+     */
+    public Range getRange(QueryIntent intent){
+        if (intent.hasDateRange()) {
+            return new Range(intent.getBeginYear(), intent.getEndYear());
+        }
         return null;
     }
 
@@ -1,6 +1,3 @@
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * @author Martín Gascón 764429
  * @author Eduardo Ruiz  764539
@@ -8,21 +5,116 @@ import java.util.Map;
  */
 public abstract class Detector {
 
+    private static final ThreadLocal<Key> KEYS = ThreadLocal.withInitial(Key::new);
+
     /**
      * Process a string deleting the accents and punctuation signs.
      * @param s string to normalize
      * @return a normalized string without accents and punctuation signs.
      */
     public static String normalize(String s) {
-        s = s.replaceAll("\\p{P}","");
-        s = s.replace("á", "a");
-        s = s.replace("é", "e");
-        s = s.replace("í", "i");
-        s = s.replace("ó", "o");
-        s = s.replace("ú", "u");
-        s = s.replace("\n", "");
-        s = s.replace("\t", "");
-        return s;
+        char[] normalized = null;
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char n = isRemoved(c) ? 0 : foldLowerCaseAccent(c);
+            if (normalized == null) {
+                if (n == c) {
+                    continue;
+                }
+                // first change, copy the unchanged prefix
+                normalized = new char[s.length()];
+                s.getChars(0, i, normalized, 0);
+                length = i;
+            }
+            if (n != 0) {
+                normalized[length++] = n;
+            }
+        }
+        return normalized == null ? s : new String(normalized, 0, length);
+    }
+
+    /**
+     * Builds the dictionary key of a token in a single pass: punctuation signs are deleted, accents are folded
+     * and the letters are upper cased. The key is held in a buffer of the current thread, so it is only valid
+     * until the next call from the same thread.
+     * @param token token to normalize
+     * @return the key of the token.
+     */
+    public static CharSequence key(CharSequence token) {
+        Key key = KEYS.get();
+        key.clear(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = keyChar(token.charAt(i));
+            if (c != 0) {
+                key.append(c);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Normalizes a single character of a dictionary key.
+     * @param c character to normalize
+     * @return the upper cased character without accent, or 0 if the character is deleted.
+     */
+    static char keyChar(char c) {
+        return isRemoved(c) ? 0 : Character.toUpperCase(foldAccent(c));
+    }
+
+    /**
+     * Checks if the first character kept by the normalization of a token is an upper case letter.
+     * @param token token to check
+     * @return true if the normalized token starts with an upper case letter.
+     */
+    public static boolean startsWithUpperCase(CharSequence token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!isRemoved(c)) {
+                return Character.isUpperCase(c);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Characters deleted by the normalization: punctuation signs, new lines and tabs.
+     */
+    private static boolean isRemoved(char c) {
+        switch (Character.getType(c)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return c == '\n' || c == '\t';
+        }
+    }
+
+    private static char foldLowerCaseAccent(char c) {
+        switch (c) {
+            case 'á': return 'a';
+            case 'é': return 'e';
+            case 'í': return 'i';
+            case 'ó': return 'o';
+            case 'ú': return 'u';
+            default: return c;
+        }
+    }
+
+    private static char foldAccent(char c) {
+        switch (c) {
+            case 'Á': return 'A';
+            case 'É': return 'E';
+            case 'Í': return 'I';
+            case 'Ó': return 'O';
+            case 'Ú': return 'U';
+            default: return foldLowerCaseAccent(c);
+        }
     }
 
     /**
@@ -37,4 +129,43 @@ public abstract class Detector {
      * @return return true if there is no problem in the file read.
      */
     public abstract boolean loadData();
+
+    /**
+     * Reusable char buffer of a dictionary key.
+     */
+    private static final class Key implements CharSequence {
+        private char[] chars = new char[32];
+        private int length;
+
+        void clear(int capacity) {
+            if (chars.length < capacity) {
+                chars = new char[Math.max(capacity, chars.length * 2)];
+            }
+            length = 0;
+        }
+
+        void append(char c) {
+            chars[length++] = c;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
 }
@@ -0,0 +1,319 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Streaming extractor of the Dublin Core fields of a record. It reads each file once with a SAX parser and fills
+ * all the index fields in the same pass. It also streams the records of an OAI-PMH ListRecords response one by
+ * one, so a whole harvest can be indexed without a file per record. Parsers are reused, one per thread.
+ */
+public class DublinCoreParser extends DefaultHandler {
+
+    private enum FieldTypes {
+        STRING_FIELD, TEXT_FIELD, DATE_FIELD
+    }
+
+    /**
+     * Numeric field with the year of dc:date, indexed as a point for range filters and as doc values for sorting.
+     */
+    public static final String YEAR_FIELD = "year";
+
+    private static final String[] TAGS = {"dc:title", "dc:subject", "dc:description", "dc:contributor",
+            "dc:creator", "dc:date", "dc:type", "dc:publisher"};
+    private static final String[] NAMES = {"title", "subject", "description", "contributor",
+            "creator", "date", "type", "publisher"};
+    private static final FieldTypes[] TYPES = {FieldTypes.TEXT_FIELD, FieldTypes.TEXT_FIELD, FieldTypes.TEXT_FIELD,
+            FieldTypes.TEXT_FIELD, FieldTypes.TEXT_FIELD, FieldTypes.DATE_FIELD, FieldTypes.STRING_FIELD,
+            FieldTypes.TEXT_FIELD};
+
+    /**
+     * Receives the records of an OAI-PMH response.
+     */
+    public interface RecordHandler {
+        /**
+         * @param identifier OAI identifier of the record, from its header.
+         * @param doc Document with the fields of the record, or null if the record was deleted from the repository.
+         * @throws IOException If there is a low-level I/O error
+         */
+        void record(String identifier, Document doc) throws IOException;
+    }
+
+    private static final ThreadLocal<DublinCoreParser> PARSERS = ThreadLocal.withInitial(() -> {
+        try {
+            return new DublinCoreParser();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final XMLReader reader;
+    private final StringBuilder text = new StringBuilder(1024);
+    private final boolean[] seen = new boolean[TAGS.length];
+    private Document doc;
+    private int current;
+    private int depth;
+
+    // state of the OAI-PMH records mode
+    private RecordHandler records;
+    private boolean header;
+    private boolean deleted;
+    private boolean readingIdentifier;
+    private String identifier;
+    private long recordStart;
+
+    private DublinCoreParser() throws ParserConfigurationException, SAXException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(false);
+        factory.setValidating(false);
+        reader = factory.newSAXParser().getXMLReader();
+        reader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        reader.setContentHandler(this);
+    }
+
+    /**
+     * Returns the parser of the current thread.
+     * @return A parser which must not be shared with other threads.
+     */
+    public static DublinCoreParser get() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Adds to the document the first occurrence of each Dublin Core field of the record.
+     * @param in Stream with the XML record. It is left open for the caller.
+     * @param doc Indexing document.
+     * @throws IOException If there is a low-level I/O error
+     * @throws SAXException If the record is not well formed
+     */
+    public void parse(InputStream in, Document doc) throws IOException, SAXException {
+        this.doc = doc;
+        try {
+            reader.parse(new InputSource(new FilterInputStream(in) {
+                @Override
+                public void close() {
+                    // closed by the caller
+                }
+            }));
+        } finally {
+            this.doc = null;
+        }
+    }
+
+    /**
+     * Streams the records of an OAI-PMH ListRecords response with Dublin Core metadata. Each record gets its own
+     * document with the first occurrence of each field, as if it had been read from its own file.
+     * @param in Stream with the XML response. It is left open for the caller.
+     * @param handler Receives each record as soon as it ends.
+     * @throws IOException If there is a low-level I/O error or the handler fails
+     * @throws SAXException If the response is not well formed
+     */
+    public void parseRecords(InputStream in, RecordHandler handler) throws IOException, SAXException {
+        this.records = handler;
+        try {
+            parse(in, null);
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException) {
+                throw (IOException) e.getException();
+            }
+            throw e;
+        } finally {
+            this.records = null;
+            this.identifier = null;
+        }
+    }
+
+    @Override
+    public void startDocument() {
+        Arrays.fill(seen, false);
+        current = -1;
+        depth = 0;
+        header = false;
+        readingIdentifier = false;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (current >= 0) {
+            // nested element, its text is part of the field being read
+            depth++;
+            return;
+        }
+        if (records != null && startRecordElement(localPart(qName), attributes)) {
+            return;
+        }
+        int field = fieldOf(qName);
+        if (field >= 0 && !seen[field] && doc != null) {
+            current = field;
+            depth = 0;
+            text.setLength(0);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (current >= 0 || readingIdentifier) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (current < 0) {
+            if (records != null) {
+                endRecordElement(localPart(qName));
+            }
+            return;
+        }
+        if (depth > 0) {
+            depth--;
+            return;
+        }
+        addField(doc, current, text.toString());
+        seen[current] = true;
+        current = -1;
+    }
+
+    /**
+     * Starts the OAI-PMH envelope elements: a record begins a new document and the identifier of its header names
+     * the record.
+     * @return true if the element belongs to the envelope.
+     */
+    private boolean startRecordElement(String name, Attributes attributes) {
+        if ("record".equals(name)) {
+            recordStart = Metrics.start();
+            doc = new Document();
+            Arrays.fill(seen, false);
+            identifier = null;
+            deleted = false;
+            return true;
+        } else if ("header".equals(name) && doc != null) {
+            header = true;
+            deleted = "deleted".equals(attributes.getValue("status"));
+            return true;
+        } else if ("identifier".equals(name) && header && identifier == null) {
+            readingIdentifier = true;
+            text.setLength(0);
+            return true;
+        }
+        return false;
+    }
+
+    private void endRecordElement(String name) throws SAXException {
+        if (readingIdentifier) {
+            identifier = text.toString().trim();
+            readingIdentifier = false;
+        } else if ("header".equals(name)) {
+            header = false;
+        } else if ("record".equals(name) && doc != null) {
+            Metrics.record(Metrics.Stage.INDEX_PARSE, recordStart);
+            try {
+                records.record(identifier, deleted ? null : doc);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            } finally {
+                doc = null;
+            }
+        }
+    }
+
+    /**
+     * Adds a Dublin Core field with the same index options it gets when it is read from a record.
+     * @param doc Indexing document.
+     * @param name Index name of the field, such as title or date.
+     * @param value Text of the field.
+     * @return false if the name is not an indexed field.
+     */
+    public static boolean addField(Document doc, String name, String value) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                addField(doc, i, value);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addField(Document doc, int field, String value) {
+        long start = Metrics.start();
+        switch (TYPES[field]) {
+            case TEXT_FIELD:
+                doc.add(new TextField(NAMES[field], value, Field.Store.NO));
+                break;
+            case STRING_FIELD:
+                doc.add(new StringField(NAMES[field], value, Field.Store.YES));
+                break;
+            case DATE_FIELD:
+                doc.add(new TextField(NAMES[field], value, Field.Store.NO));
+                int year = year(value);
+                if (year >= 0) {
+                    doc.add(new IntPoint(YEAR_FIELD, year));
+                    doc.add(new NumericDocValuesField(YEAR_FIELD, year));
+                }
+                break;
+            default:
+        }
+        Metrics.record(Metrics.Stage.INDEX_FIELDS, start);
+    }
+
+    /**
+     * Reads the year of a date, the first group of four digits, such as in 2015 or 2015-06-01.
+     * @param date Text of the date.
+     * @return The year or -1 if the date has no year.
+     */
+    private static int year(CharSequence date) {
+        int digits = 0;
+        for (int i = 0; i < date.length(); i++) {
+            if (Character.isDigit(date.charAt(i))) {
+                digits++;
+                if (digits == 4 && (i + 1 == date.length() || !Character.isDigit(date.charAt(i + 1)))) {
+                    int year = 0;
+                    for (int j = i - 3; j <= i; j++) {
+                        year = year * 10 + Character.digit(date.charAt(j), 10);
+                    }
+                    return year;
+                }
+            } else {
+                digits = 0;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Name of a tag without its namespace prefix.
+     */
+    private static String localPart(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    /**
+     * Index of the field read from a tag.
+     * @param tag Tag of the source document.
+     * @return The index of the field or -1 if the tag is not indexed.
+     */
+    private static int fieldOf(String tag) {
+        for (int i = 0; i < TAGS.length; i++) {
+            if (TAGS[i].equals(tag)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,442 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * This class detects names, surnames, countries and regions in a whole sentence. All the word lists are compiled
+ * into one Aho-Corasick automaton, so every entity, including the ones of several words, is found in a single
+ * linear pass over the normalized sentence. The automaton is compiled once into a binary file next to the name
+ * lists, which is memory mapped as the gazetteers are.
+ */
+public class EntityDetector extends Detector {
+
+    /**
+     * Word lists of the entities.
+     */
+    enum EntityType {
+        NAME, SURNAME, COUNTRY, REGION;
+
+        int mask() {
+            return 1 << ordinal();
+        }
+    }
+
+    private static final int NAME_TYPES = EntityType.NAME.mask() | EntityType.SURNAME.mask();
+    private static final int LOCATION_TYPES = EntityType.COUNTRY.mask() | EntityType.REGION.mask();
+    static final String AUTOMATON_FILE_PATH = "spanish-names-master/entities.aut";
+
+    private static Automaton shared;
+
+    private Automaton automaton;
+
+    public EntityDetector() {
+        loadData();
+    }
+
+    /**
+     * Finds the entities of the sentence. An entity is only reported when it covers whole words, and only the
+     * longest of the overlapping names, or of the overlapping locations, is kept, so the words of an entity of
+     * several words are not reported again on their own. The names and the locations are chosen apart, as a word
+     * can be a surname and a part of a location, as "Real" in "Ciudad Real".
+     * @param sentence Sentence to scan.
+     * @return The entities in the order of their start in the sentence.
+     */
+    public List<Entity> scan(String sentence) {
+        // normalized sentence and the position in the sentence of each of its chars
+        char[] key = new char[sentence.length()];
+        int[] positions = new int[sentence.length()];
+        int length = 0;
+        for (int i = 0; i < sentence.length(); i++) {
+            char c = sentence.charAt(i);
+            char k = Character.isWhitespace(c) ? ' ' : keyChar(c);
+            if (k != 0) {
+                key[length] = k;
+                positions[length++] = i;
+            }
+        }
+
+        List<Match> matches = new ArrayList<>();
+        int state = Automaton.ROOT;
+        for (int end = 0; end < length; end++) {
+            state = automaton.step(state, key[end]);
+            boolean wordEnd = end + 1 == length || key[end + 1] == ' ';
+            if (!wordEnd) {
+                continue;
+            }
+            for (int node = automaton.firstOutput(state); node != Automaton.NONE; node = automaton.output(node)) {
+                int start = end - automaton.depth(node) + 1;
+                if (start == 0 || key[start - 1] == ' ') {
+                    matches.add(new Match(start, end + 1, automaton.types(node)));
+                }
+            }
+        }
+
+        matches.sort(Comparator.comparingInt((Match m) -> m.start).thenComparingInt(m -> -m.end));
+        keepLongest(matches, NAME_TYPES);
+        keepLongest(matches, LOCATION_TYPES);
+        List<Entity> entities = new ArrayList<>();
+        for (Match match : matches) {
+            if (match.kept != 0) {
+                entities.add(new Entity(sentence, positions[match.start], positions[match.end - 1] + 1, match.kept));
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Keeps the leftmost longest matches of some types which do not overlap each other.
+     * @param matches Matches sorted by start, and the longest first for the same start.
+     * @param kind    Types of the entities chosen together.
+     */
+    private static void keepLongest(List<Match> matches, int kind) {
+        int end = 0;
+        for (Match match : matches) {
+            int types = match.types & kind;
+            if (types != 0 && match.start >= end) {
+                match.kept |= types;
+                end = match.end;
+            }
+        }
+    }
+
+    /**
+     * Detects if a token is a whole entity of any type.
+     * @param token string variable to detect a pattern
+     * @return true if the token is a name, surname, country or region.
+     */
+    @Override
+    public boolean detect(String token) {
+        CharSequence key = key(token);
+        int node = Automaton.ROOT;
+        for (int i = 0; i < key.length() && node != Automaton.NONE; i++) {
+            node = automaton.child(node, key.charAt(i));
+        }
+        return node != Automaton.NONE && automaton.types(node) != 0;
+    }
+
+    @Override
+    public boolean loadData() {
+        try {
+            automaton = automaton();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The automaton is mapped once per process and shared by all the detectors.
+     */
+    private static synchronized Automaton automaton() throws IOException {
+        if (shared == null) {
+            shared = new Automaton(Gazetteer.mapCompiled(Paths.get(AUTOMATON_FILE_PATH), Automaton.MAGIC,
+                    Automaton.VERSION, EntityDetector::compile,
+                    Paths.get(SpanishNamesDetector.NAMES_FILE_PATH),
+                    Paths.get(SpanishNamesDetector.SURNAMES_FILE_PATH),
+                    Paths.get(SpanishLocationsDetector.COUNTRIES_FILE_PATH),
+                    Paths.get(SpanishLocationsDetector.REGION_FILE_PATH)));
+        }
+        return shared;
+    }
+
+    /**
+     * Builds the binary form of the automaton of all the word lists.
+     */
+    private static ByteBuffer compile() throws IOException {
+        AutomatonBuilder builder = new AutomatonBuilder();
+        builder.add(Gazetteer.open(SpanishNamesDetector.NAMES_FILE_PATH), EntityType.NAME);
+        builder.add(Gazetteer.open(SpanishNamesDetector.SURNAMES_FILE_PATH), EntityType.SURNAME);
+        builder.add(Gazetteer.open(SpanishLocationsDetector.COUNTRIES_FILE_PATH), EntityType.COUNTRY);
+        builder.add(Gazetteer.open(SpanishLocationsDetector.REGION_FILE_PATH), EntityType.REGION);
+        return builder.build();
+    }
+
+    /**
+     * Whole word match of the automaton, in positions of the normalized sentence.
+     */
+    private static final class Match {
+        final int start;
+        final int end;
+        final int types;
+        // types for which the match is kept
+        int kept;
+
+        Match(int start, int end, int types) {
+            this.start = start;
+            this.end = end;
+            this.types = types;
+        }
+    }
+
+    /**
+     * Entity found in a sentence.
+     */
+    public static final class Entity {
+        private final int start;
+        private final int end;
+        private final int types;
+        private final String text;
+        private final boolean capitalized;
+
+        Entity(String sentence, int start, int end, int types) {
+            this.start = start;
+            this.end = end;
+            this.types = types;
+            this.text = normalize(sentence.substring(start, end));
+            this.capitalized = Character.isUpperCase(sentence.charAt(start));
+        }
+
+        /**
+         * @return The position of the first char of the entity in the sentence.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return The position after the last char of the entity in the sentence.
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return The text of the entity without accents and punctuation signs.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return true if the entity starts with an upper case letter.
+         */
+        public boolean isCapitalized() {
+            return capitalized;
+        }
+
+        public boolean is(EntityType type) {
+            return (types & type.mask()) != 0;
+        }
+
+        public boolean isName() {
+            return (types & NAME_TYPES) != 0;
+        }
+
+        public boolean isLocation() {
+            return (types & LOCATION_TYPES) != 0;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton stored in parallel arrays of a memory mapped file, like the gazetteers, so it is
+     * neither built nor loaded onto the heap when a process starts. The children of a node are a linked list of
+     * siblings.
+     *
+     * Binary format: magic, version, number of nodes, the arrays of first children, next siblings, failure links,
+     * output links, depths and entity types of the nodes, and the labels of the nodes as UTF-16 chars.
+     */
+    private static final class Automaton {
+        static final int ROOT = 0;
+        static final int NONE = -1;
+        private static final int MAGIC = 0x41434131;
+        private static final int VERSION = 1;
+        private static final int HEADER_INTS = 3;
+        private static final int INT_ARRAYS = 6;
+
+        private final IntBuffer firstChild;
+        private final IntBuffer nextSibling;
+        private final IntBuffer fail;
+        private final IntBuffer output;
+        private final IntBuffer depth;
+        private final IntBuffer types;
+        private final CharBuffer labels;
+
+        Automaton(ByteBuffer data) throws IOException {
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("Not a compiled entity automaton");
+            }
+            int size = data.getInt(8);
+            int arrayBytes = size * Integer.BYTES;
+            int offset = HEADER_INTS * Integer.BYTES;
+            firstChild = slice(data, offset, arrayBytes).asIntBuffer();
+            nextSibling = slice(data, offset += arrayBytes, arrayBytes).asIntBuffer();
+            fail = slice(data, offset += arrayBytes, arrayBytes).asIntBuffer();
+            output = slice(data, offset += arrayBytes, arrayBytes).asIntBuffer();
+            depth = slice(data, offset += arrayBytes, arrayBytes).asIntBuffer();
+            types = slice(data, offset += arrayBytes, arrayBytes).asIntBuffer();
+            labels = slice(data, offset + arrayBytes, size * Character.BYTES).asCharBuffer();
+        }
+
+        int child(int node, char label) {
+            for (int c = firstChild.get(node); c != NONE; c = nextSibling.get(c)) {
+                if (labels.get(c) == label) {
+                    return c;
+                }
+            }
+            return NONE;
+        }
+
+        int step(int state, char label) {
+            while (true) {
+                int next = child(state, label);
+                if (next != NONE) {
+                    return next;
+                }
+                if (state == ROOT) {
+                    return ROOT;
+                }
+                state = fail.get(state);
+            }
+        }
+
+        /**
+         * First node of the output chain of a state: the state itself if a word ends there.
+         */
+        int firstOutput(int state) {
+            return types.get(state) != 0 ? state : output.get(state);
+        }
+
+        int output(int node) {
+            return output.get(node);
+        }
+
+        int depth(int node) {
+            return depth.get(node);
+        }
+
+        int types(int node) {
+            return types.get(node);
+        }
+
+        private static ByteBuffer slice(ByteBuffer data, int from, int length) {
+            ByteBuffer duplicate = data.duplicate();
+            duplicate.position(from).limit(from + length);
+            return duplicate.slice();
+        }
+    }
+
+    /**
+     * Builds the automaton on the heap, only when its compiled file is missing or older than the word lists.
+     */
+    private static final class AutomatonBuilder {
+        private char[] labels = new char[1 << 16];
+        private int[] firstChild = new int[1 << 16];
+        private int[] nextSibling = new int[1 << 16];
+        private int[] fail;
+        private int[] output;
+        private int[] depth = new int[1 << 16];
+        private int[] types = new int[1 << 16];
+        private int size;
+
+        AutomatonBuilder() {
+            newNode((char) 0, 0);
+        }
+
+        /**
+         * Adds all the words of a list.
+         */
+        void add(Gazetteer words, EntityType type) {
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.word(i);
+                int node = Automaton.ROOT;
+                for (int j = 0; j < word.length(); j++) {
+                    int next = child(node, word.charAt(j));
+                    if (next == Automaton.NONE) {
+                        next = newNode(word.charAt(j), depth[node] + 1);
+                        nextSibling[next] = firstChild[node];
+                        firstChild[node] = next;
+                    }
+                    node = next;
+                }
+                types[node] |= type.mask();
+            }
+        }
+
+        /**
+         * Computes the failure and output links, breadth first, and writes the compiled automaton.
+         * @return A direct buffer with the compiled automaton.
+         */
+        ByteBuffer build() {
+            fail = new int[size];
+            output = new int[size];
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            fail[Automaton.ROOT] = Automaton.ROOT;
+            output[Automaton.ROOT] = Automaton.NONE;
+            for (int c = firstChild[Automaton.ROOT]; c != Automaton.NONE; c = nextSibling[c]) {
+                fail[c] = Automaton.ROOT;
+                output[c] = Automaton.NONE;
+                queue[tail++] = c;
+            }
+            while (head < tail) {
+                int node = queue[head++];
+                for (int c = firstChild[node]; c != Automaton.NONE; c = nextSibling[c]) {
+                    int f = step(fail[node], labels[c]);
+                    fail[c] = f;
+                    output[c] = types[f] != 0 ? f : output[f];
+                    queue[tail++] = c;
+                }
+            }
+
+            ByteBuffer data = ByteBuffer.allocateDirect(Automaton.HEADER_INTS * Integer.BYTES
+                    + size * (Automaton.INT_ARRAYS * Integer.BYTES + Character.BYTES));
+            data.putInt(Automaton.MAGIC).putInt(Automaton.VERSION).putInt(size);
+            for (int[] array : new int[][] {firstChild, nextSibling, fail, output, depth, types}) {
+                data.asIntBuffer().put(array, 0, size);
+                data.position(data.position() + size * Integer.BYTES);
+            }
+            data.asCharBuffer().put(labels, 0, size);
+            data.position(data.position() + size * Character.BYTES);
+            data.flip();
+            return data;
+        }
+
+        private int child(int node, char label) {
+            for (int c = firstChild[node]; c != Automaton.NONE; c = nextSibling[c]) {
+                if (labels[c] == label) {
+                    return c;
+                }
+            }
+            return Automaton.NONE;
+        }
+
+        private int step(int state, char label) {
+            while (true) {
+                int next = child(state, label);
+                if (next != Automaton.NONE) {
+                    return next;
+                }
+                if (state == Automaton.ROOT) {
+                    return Automaton.ROOT;
+                }
+                state = fail[state];
+            }
+        }
+
+        private int newNode(char label, int nodeDepth) {
+            if (size == labels.length) {
+                int capacity = size * 2;
+                labels = Arrays.copyOf(labels, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                depth = Arrays.copyOf(depth, capacity);
+                types = Arrays.copyOf(types, capacity);
+            }
+            labels[size] = label;
+            firstChild[size] = Automaton.NONE;
+            nextSibling[size] = Automaton.NONE;
+            depth[size] = nodeDepth;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Evaluation of runs against relevance judgments (qrels) with the lines INFORMATION-IDENTIFIER\tFILE-NAME\tRELEVANCE.
+ * The judged documents get int ids and the judgments of each need are kept in sorted primitive arrays. A run is
+ * scored as it is read, one result at a time, so large result files are never sorted nor kept in memory, and the
+ * results of SearchFiles can be scored without writing them. For each need and in total it computes precision,
+ * recall, F1, precision at k, average precision, nDCG at k and at the whole depth, and the interpolated
+ * precision at eleven recall levels. A document judged twice for a need, or ranked twice for a need, counts once.
+ */
+public class Evaluation {
+
+    private static final int RECALL_LEVELS = 11;
+    static final int DEFAULT_CUTOFF = 10;
+
+    private final Map<BytesRef, Integer> docIds = new HashMap<>();
+    private final Map<String, Judgments> judgments = new LinkedHashMap<>();
+    private final int cutoff;
+
+    private Evaluation(int cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * Loads the relevance judgments. A document is relevant when its relevance is greater than 0, and the
+     * relevance is its gain for nDCG.
+     * @param qrels  Path of the judgments file.
+     * @param cutoff Depth of the precision and nDCG at k.
+     * @return The evaluation of the needs of the judgments.
+     * @throws IOException If the file can not be read or has an invalid line
+     */
+    public static Evaluation load(Path qrels, int cutoff) throws IOException {
+        Evaluation evaluation = new Evaluation(cutoff);
+        Map<String, Map<Integer, Integer>> lines = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(qrels, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException("Invalid line " + number + " of " + qrels + ": " + line);
+                }
+                int doc = evaluation.docIds.computeIfAbsent(new BytesRef(fields[1]), k -> evaluation.docIds.size());
+                // a document judged again for the same need keeps its first judgment, so it counts once
+                lines.computeIfAbsent(fields[0], k -> new HashMap<>()).putIfAbsent(doc, Integer.parseInt(fields[2]));
+            }
+        }
+        for (Map.Entry<String, Map<Integer, Integer>> need : lines.entrySet()) {
+            evaluation.judgments.put(need.getKey(), new Judgments(need.getValue()));
+        }
+        return evaluation;
+    }
+
+    /**
+     * @return A new empty run over the needs of the judgments.
+     */
+    public Run newRun() {
+        return new Run();
+    }
+
+    /**
+     * Scores a results file, scanning the lines in blocks of bytes read from it.
+     * @param results Path of the results file, with the lines INFORMATION-IDENTIFIER\tFILE-NAME in ranking order
+     *                for each need.
+     * @return The scored run.
+     * @throws IOException If the file can not be read or has an invalid line
+     */
+    public Run evaluate(Path results) throws IOException {
+        Run run = newRun();
+        ResultLines lines = new ResultLines(run, results);
+        try (InputStream in = Files.newInputStream(results)) {
+            byte[] buffer = new byte[1 << 16];
+            // the bytes from start to end are not consumed yet, and those before scanned have no line break
+            int start = 0;
+            int end = 0;
+            int scanned = 0;
+            while (true) {
+                int newline = scanned;
+                while (newline < end && buffer[newline] != '\n') {
+                    newline++;
+                }
+                if (newline < end) {
+                    lines.add(buffer, start, newline);
+                    start = newline + 1;
+                    scanned = start;
+                    continue;
+                }
+                scanned = end;
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    scanned -= start;
+                    start = 0;
+                } else if (end == buffer.length) {
+                    // a line longer than the buffer
+                    buffer = ArrayUtil.grow(buffer, end + 1);
+                }
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    if (start < end) {
+                        lines.add(buffer, start, end);
+                    }
+                    break;
+                }
+                end += read;
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Parser of the lines of a results file, which adds them to a run.
+     */
+    private static final class ResultLines {
+        private final Run run;
+        private final Path results;
+        private final BytesRef doc = new BytesRef();
+        private String need;
+        private byte[] needBytes = new byte[0];
+        private int number;
+
+        ResultLines(Run run, Path results) {
+            this.run = run;
+            this.results = results;
+        }
+
+        /**
+         * @param bytes Bytes of the file.
+         * @param start Offset of the line.
+         * @param end   Offset of the end of the line, without the line break.
+         */
+        void add(byte[] bytes, int start, int end) throws IOException {
+            number++;
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end == start) {
+                return;
+            }
+            int tab = start;
+            while (tab < end && bytes[tab] != '\t') {
+                tab++;
+            }
+            if (tab == end) {
+                throw new IOException("Invalid line " + number + " of " + results);
+            }
+            // the need changes rarely, so its string is only created when it does
+            if (need == null || !Arrays.equals(needBytes, 0, needBytes.length, bytes, start, tab)) {
+                needBytes = Arrays.copyOfRange(bytes, start, tab);
+                need = new String(needBytes, StandardCharsets.UTF_8);
+            }
+            doc.bytes = bytes;
+            doc.offset = tab + 1;
+            doc.length = end - tab - 1;
+            run.add(need, doc);
+        }
+    }
+
+    /**
+     * Relevance judgments of a need: the ids of its judged documents sorted, with their relevance.
+     */
+    private static final class Judgments {
+        final int[] docs;
+        final int[] relevance;
+        final int relevant;
+        final double[] idealGains;
+
+        /**
+         * @param lines Relevance of each judged document.
+         */
+        Judgments(Map<Integer, Integer> lines) {
+            docs = new int[lines.size()];
+            int next = 0;
+            for (int doc : lines.keySet()) {
+                docs[next++] = doc;
+            }
+            Arrays.sort(docs);
+            relevance = new int[docs.length];
+            int count = 0;
+            for (int i = 0; i < docs.length; i++) {
+                relevance[i] = lines.get(docs[i]);
+                if (relevance[i] > 0) {
+                    count++;
+                }
+            }
+            relevant = count;
+            // cumulative ideal DCG: idealGains[i] is the DCG of the best ranking at depth i + 1
+            int[] gains = relevance.clone();
+            Arrays.sort(gains);
+            idealGains = new double[count];
+            double dcg = 0;
+            for (int i = 0; i < count; i++) {
+                dcg += gains[gains.length - 1 - i] / log2(i + 2);
+                idealGains[i] = dcg;
+            }
+        }
+
+        /**
+         * @return The position of the document in the judgments, or a negative value if it is not judged.
+         */
+        int indexOf(int doc) {
+            return Arrays.binarySearch(docs, doc);
+        }
+
+        double idealDcg(int depth) {
+            return depth == 0 || idealGains.length == 0 ? 0 : idealGains[Math.min(depth, idealGains.length) - 1];
+        }
+    }
+
+    /**
+     * Results of a run, scored as they are added.
+     */
+    public final class Run {
+        private final Map<String, NeedRun> needs = new HashMap<>();
+
+        /**
+         * Adds the next result of a need. Results of needs without judgments are ignored.
+         * @param need Identifier of the information need.
+         * @param doc  UTF-8 file name of the result. It is not kept.
+         */
+        public void add(String need, BytesRef doc) {
+            NeedRun run = needs.get(need);
+            if (run == null) {
+                Judgments judged = judgments.get(need);
+                if (judged == null) {
+                    return;
+                }
+                run = new NeedRun(judged);
+                needs.put(need, run);
+            }
+            Integer id = docIds.get(doc);
+            run.add(id == null ? -1 : id, doc);
+        }
+
+        /**
+         * Adds the results of a need in ranking order.
+         * @param need Identifier of the information need.
+         * @param docs UTF-8 file names of the results.
+         */
+        public void add(String need, BytesRef[] docs) {
+            for (BytesRef doc : docs) {
+                add(need, doc);
+            }
+        }
+
+        /**
+         * @return The mean average precision over all the judged needs.
+         */
+        public double meanAveragePrecision() {
+            double sum = 0;
+            for (Map.Entry<String, Judgments> need : judgments.entrySet()) {
+                NeedRun run = needs.get(need.getKey());
+                sum += run == null ? 0 : run.averagePrecision();
+            }
+            return judgments.isEmpty() ? 0 : sum / judgments.size();
+        }
+
+        /**
+         * Prints the metrics of each judged need, in the order of the judgments, and their mean.
+         * @param out Stream to print to.
+         */
+        public void print(PrintStream out) {
+            double[] total = new double[7];
+            double[] totalInterpolated = new double[RECALL_LEVELS];
+            for (Map.Entry<String, Judgments> need : judgments.entrySet()) {
+                NeedRun run = needs.get(need.getKey());
+                if (run == null) {
+                    run = new NeedRun(need.getValue());
+                }
+                double[] metrics = run.metrics();
+                double[] interpolated = run.interpolatedPrecision();
+                out.println("INFORMATION_NEED\t" + need.getKey());
+                printMetrics(out, metrics, false);
+                printRecallPrecision(out, interpolated);
+                out.println();
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += metrics[i];
+                }
+                for (int i = 0; i < RECALL_LEVELS; i++) {
+                    totalInterpolated[i] += interpolated[i];
+                }
+            }
+            int count = Math.max(1, judgments.size());
+            for (int i = 0; i < total.length; i++) {
+                total[i] /= count;
+            }
+            for (int i = 0; i < RECALL_LEVELS; i++) {
+                totalInterpolated[i] /= count;
+            }
+            out.println("TOTAL");
+            printMetrics(out, total, true);
+            printRecallPrecision(out, totalInterpolated);
+        }
+
+        private void printMetrics(PrintStream out, double[] metrics, boolean total) {
+            out.println(format("precision", metrics[0]));
+            out.println(format("recall", metrics[1]));
+            out.println(format("F1", metrics[2]));
+            out.println(format("prec@" + cutoff, metrics[3]));
+            out.println(format(total ? "MAP" : "average_precision", metrics[4]));
+            out.println(format("ndcg@" + cutoff, metrics[5]));
+            out.println(format("ndcg", metrics[6]));
+        }
+
+        private void printRecallPrecision(PrintStream out, double[] interpolated) {
+            out.println("recall_precision");
+            for (int i = 0; i < RECALL_LEVELS; i++) {
+                out.println(String.format(Locale.ROOT, "%.3f\t%.3f", i / 10.0, interpolated[i]));
+            }
+        }
+    }
+
+    private static String format(String name, double value) {
+        return String.format(Locale.ROOT, "%s\t%.3f", name, value);
+    }
+
+    /**
+     * Counters of the results of a need, updated with each result.
+     */
+    private final class NeedRun {
+        final Judgments judgments;
+        // results already ranked: the ids of the judged documents of any need, and the names of the others
+        final BitSet seen = new BitSet();
+        final Set<BytesRef> seenUnjudged = new HashSet<>();
+        // precision at the rank of each relevant result, in ranking order
+        final double[] precisions;
+        int retrieved;
+        int relevantRetrieved;
+        int relevantAtCutoff;
+        double dcg;
+        double dcgAtCutoff;
+
+        NeedRun(Judgments judgments) {
+            this.judgments = judgments;
+            this.precisions = new double[judgments.relevant];
+        }
+
+        /**
+         * Adds the next result. A document already ranked does not count again.
+         * @param id  Id of the document in the judgments of any need, or -1 if it was never judged.
+         * @param doc UTF-8 file name of the document. It is copied if it has to be kept.
+         */
+        void add(int id, BytesRef doc) {
+            if (id >= 0) {
+                if (seen.get(id)) {
+                    return;
+                }
+                seen.set(id);
+            } else {
+                if (seenUnjudged.contains(doc)) {
+                    return;
+                }
+                seenUnjudged.add(BytesRef.deepCopyOf(doc));
+            }
+            int judged = id >= 0 ? judgments.indexOf(id) : -1;
+            retrieved++;
+            int gain = judged >= 0 ? judgments.relevance[judged] : 0;
+            if (gain > 0) {
+                relevantRetrieved++;
+                precisions[relevantRetrieved - 1] = (double) relevantRetrieved / retrieved;
+                double discounted = gain / log2(retrieved + 1);
+                dcg += discounted;
+                if (retrieved <= cutoff) {
+                    relevantAtCutoff++;
+                    dcgAtCutoff += discounted;
+                }
+            }
+        }
+
+        double averagePrecision() {
+            double sum = 0;
+            for (int i = 0; i < relevantRetrieved; i++) {
+                sum += precisions[i];
+            }
+            return judgments.relevant == 0 ? 0 : sum / judgments.relevant;
+        }
+
+        /**
+         * @return precision, recall, F1, precision at k, average precision, nDCG at k and nDCG.
+         */
+        double[] metrics() {
+            double precision = retrieved == 0 ? 0 : (double) relevantRetrieved / retrieved;
+            double recall = judgments.relevant == 0 ? 0 : (double) relevantRetrieved / judgments.relevant;
+            double f1 = precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+            double idealAtCutoff = judgments.idealDcg(cutoff);
+            double ideal = judgments.idealDcg(judgments.relevant);
+            return new double[]{precision, recall, f1, (double) relevantAtCutoff / cutoff, averagePrecision(),
+                    idealAtCutoff == 0 ? 0 : dcgAtCutoff / idealAtCutoff, ideal == 0 ? 0 : dcg / ideal};
+        }
+
+        /**
+         * @return The highest precision at any recall greater or equal than each of the eleven recall levels.
+         */
+        double[] interpolatedPrecision() {
+            double[] interpolated = new double[RECALL_LEVELS];
+            if (judgments.relevant == 0) {
+                return interpolated;
+            }
+            double best = 0;
+            int level = RECALL_LEVELS - 1;
+            for (int i = relevantRetrieved - 1; i >= 0; i--) {
+                double recall = (double) (i + 1) / judgments.relevant;
+                while (level >= 0 && level / 10.0 > recall + 1e-9) {
+                    interpolated[level--] = best;
+                }
+                best = Math.max(best, precisions[i]);
+            }
+            while (level >= 0) {
+                interpolated[level--] = best;
+            }
+            return interpolated;
+        }
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String usage = "Usage:\tEvaluation -qrels QRELS_FILE_PATH -results RESULTS_FILE_PATH [-output OUTPUT_FILE_PATH]"
+                + " [-k CUTOFF]\n\n"
+                + "Scores the results of SearchFiles against the relevance judgments, for each need and in total.";
+        String qrelsPath = null;
+        String resultsPath = null;
+        String outputPath = null;
+        int cutoff = DEFAULT_CUTOFF;
+        for (int i = 0; i < args.length; i++) {
+            if ("-qrels".equals(args[i])) {
+                qrelsPath = args[++i];
+            } else if ("-results".equals(args[i])) {
+                resultsPath = args[++i];
+            } else if ("-output".equals(args[i])) {
+                outputPath = args[++i];
+            } else if ("-k".equals(args[i])) {
+                cutoff = Integer.parseInt(args[++i]);
+            }
+        }
+        if (qrelsPath == null || resultsPath == null) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        Run run = load(Paths.get(qrelsPath), cutoff).evaluate(Paths.get(resultsPath));
+        if (outputPath == null) {
+            run.print(System.out);
+        } else {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(outputPath)), false, "UTF-8")) {
+                run.print(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * This class resolves the file names of the search hits from the filename doc values written by IndexFiles.
+ * Segments of indexes built before that field existed fall back to the stored path.
+ */
+public class FilenameResolver {
+
+    public static final String FILENAME_FIELD = "filename";
+    private static final Set<String> PATH_FIELD = Collections.singleton("path");
+
+    private FilenameResolver() {
+    }
+
+    /**
+     * Resolves the file names of the hits. The hits are visited in doc id order, so every segment column is
+     * read forward only once.
+     * @param reader Reader of the index searched.
+     * @param hits Hits of the search.
+     * @return The UTF-8 file name of each hit, in the same order as the hits.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public static BytesRef[] resolve(IndexReader reader, ScoreDoc[] hits) throws IOException {
+        BytesRef[] names = new BytesRef[hits.length];
+        // doc id in the high bits, hit position in the low bits
+        long[] order = new long[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            order[i] = ((long) hits[i].doc << 32) | i;
+        }
+        Arrays.sort(order);
+
+        List<LeafReaderContext> leaves = reader.leaves();
+        int leaf = -1;
+        int leafEnd = 0;
+        LeafReaderContext context = null;
+        SortedDocValues filenames = null;
+        for (long o : order) {
+            int doc = (int) (o >>> 32);
+            int hit = (int) o;
+            while (doc >= leafEnd) {
+                context = leaves.get(++leaf);
+                leafEnd = context.docBase + context.reader().maxDoc();
+                filenames = context.reader().getSortedDocValues(FILENAME_FIELD);
+            }
+            int segmentDoc = doc - context.docBase;
+            if (filenames != null && filenames.advanceExact(segmentDoc)) {
+                names[hit] = BytesRef.deepCopyOf(filenames.binaryValue());
+            } else {
+                String path = context.reader().document(segmentDoc, PATH_FIELD).get("path");
+                names[hit] = new BytesRef(filename(path));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Last element of a path.
+     * @param path Path of an indexed file.
+     * @return The name of the file.
+     */
+    public static String filename(String path) {
+        String [] pathElements = path.split("/");
+        return pathElements[pathElements.length -1];
+    }
+}
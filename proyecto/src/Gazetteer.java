@@ -0,0 +1,253 @@
+import org.apache.lucene.util.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Read only set of words of a dictionary file, such as the name or location lists of the detectors.
+ * The word list is compiled once into a sorted binary file next to it, which is memory mapped and probed
+ * with a binary search. The words are never loaded onto the heap.
+ *
+ * The words are stored as dictionary keys (see Detector.key), so they must be probed with keys too.
+ *
+ * Binary format: magic, version, number of words, the offsets of the words (one more than the number of
+ * words) and the UTF-16 chars of all the words in sorted order.
+ */
+public class Gazetteer {
+
+    private static final int MAGIC = 0x47415a31;
+    private static final int VERSION = 2;
+    private static final int HEADER_INTS = 3;
+    private static final String EXTENSION = ".gaz";
+
+    private static final Map<String, Gazetteer> OPEN = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final IntBuffer offsets;
+    private final CharBuffer chars;
+
+    private Gazetteer(ByteBuffer data) throws IOException {
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a compiled gazetteer");
+        }
+        size = data.getInt(8);
+        int offsetsStart = HEADER_INTS * Integer.BYTES;
+        int charsStart = offsetsStart + (size + 1) * Integer.BYTES;
+        offsets = slice(data, offsetsStart, charsStart).asIntBuffer();
+        chars = slice(data, charsStart, data.limit()).asCharBuffer();
+    }
+
+    /**
+     * Opens the compiled form of a word list, compiling it first if it does not exist or is older than the list.
+     * Each list is opened once per process and shared.
+     * @param path Path of the word list, one word per line.
+     * @return The gazetteer of the list.
+     * @throws IOException If the word list can not be read
+     */
+    public static Gazetteer open(String path) throws IOException {
+        Gazetteer gazetteer = OPEN.get(path);
+        if (gazetteer == null) {
+            gazetteer = load(Paths.get(path));
+            Gazetteer previous = OPEN.putIfAbsent(path, gazetteer);
+            if (previous != null) {
+                gazetteer = previous;
+            }
+        }
+        return gazetteer;
+    }
+
+    private static Gazetteer load(Path source) throws IOException {
+        Path compiled = source.resolveSibling(source.getFileName() + EXTENSION);
+        return new Gazetteer(mapCompiled(compiled, MAGIC, VERSION, () -> compile(source), source));
+    }
+
+    /**
+     * Builds the binary form of some sources.
+     */
+    interface Compiler {
+        ByteBuffer compile() throws IOException;
+    }
+
+    /**
+     * Memory maps a binary file compiled from some sources, compiling it first if it does not exist, is older than
+     * any of its sources or has another format. The file is replaced atomically, so concurrent processes never map
+     * a partial file. If it can not be written, the compiled data is kept off heap for this run only.
+     * @param compiled Path of the binary file.
+     * @param magic    First int of the file.
+     * @param version  Second int of the file, the version of its format.
+     * @param compiler Builds the binary form, starting with the magic and the version.
+     * @param sources  Paths of the sources of the binary file.
+     * @return The binary data.
+     * @throws IOException If the sources can not be read
+     */
+    static ByteBuffer mapCompiled(Path compiled, int magic, int version, Compiler compiler, Path... sources)
+            throws IOException {
+        if (!isCurrent(compiled, magic, version, sources)) {
+            ByteBuffer data = compiler.compile();
+            Path tmp = null;
+            try {
+                tmp = Files.createTempFile(compiled.toAbsolutePath().getParent(), compiled.getFileName().toString(),
+                        ".tmp");
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                }
+                Files.move(tmp, compiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // read only location, keep the compiled data off heap for this run only
+                data.rewind();
+                return data;
+            } finally {
+                // left behind if it could not be written or moved
+                if (tmp != null) {
+                    IOUtils.deleteFilesIgnoringExceptions(tmp);
+                }
+            }
+        }
+        try (FileChannel in = FileChannel.open(compiled, StandardOpenOption.READ)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+    }
+
+    /**
+     * Checks if a compiled file exists, is newer than its sources and has the current format.
+     */
+    private static boolean isCurrent(Path compiled, int magic, int version, Path... sources) throws IOException {
+        if (!Files.exists(compiled)) {
+            return false;
+        }
+        for (Path source : sources) {
+            if (Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(source)) < 0) {
+                return false;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        try (FileChannel in = FileChannel.open(compiled, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // keep reading
+            }
+        }
+        return !header.hasRemaining() && header.getInt(0) == magic && header.getInt(4) == version;
+    }
+
+    /**
+     * Builds the binary form of a word list.
+     * @param source Path of the word list.
+     * @return A direct buffer with the compiled words.
+     * @throws IOException If the word list can not be read
+     */
+    static ByteBuffer compile(Path source) throws IOException {
+        TreeSet<String> sorted = new TreeSet<>();
+        try (BufferedReader in = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                sorted.add(Detector.key(line).toString());
+            }
+        }
+        List<String> words = new ArrayList<>(sorted);
+        int totalChars = 0;
+        for (String word : words) {
+            totalChars += word.length();
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect((HEADER_INTS + words.size() + 1) * Integer.BYTES
+                + totalChars * Character.BYTES);
+        data.putInt(MAGIC).putInt(VERSION).putInt(words.size());
+        int offset = 0;
+        for (String word : words) {
+            data.putInt(offset);
+            offset += word.length();
+        }
+        data.putInt(offset);
+        for (String word : words) {
+            for (int i = 0; i < word.length(); i++) {
+                data.putChar(word.charAt(i));
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Checks if a word is in the list.
+     * @param word Dictionary key of the word to look up.
+     * @return true if the list contains the word.
+     */
+    public boolean contains(CharSequence word) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, word);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of words of the list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a word of the list.
+     * @param index Position of the word, in sorted order.
+     * @return The dictionary key of the word.
+     */
+    public String word(int index) {
+        int start = offsets.get(index);
+        char[] word = new char[offsets.get(index + 1) - start];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = chars.get(start + i);
+        }
+        return new String(word);
+    }
+
+    /**
+     * Compares a word of the list with another one, in the order of String.compareTo.
+     */
+    private int compare(int index, CharSequence word) {
+        int start = offsets.get(index);
+        int length = offsets.get(index + 1) - start;
+        int n = Math.min(length, word.length());
+        for (int i = 0; i < n; i++) {
+            int diff = chars.get(start + i) - word.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - word.length();
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int from, int to) {
+        ByteBuffer duplicate = data.duplicate();
+        duplicate.position(from).limit(to);
+        return duplicate.slice();
+    }
+}
@@ -1,21 +1,22 @@
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.apache.lucene.util.BytesRef;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * @author Martín Gascón 764429
@@ -23,19 +24,48 @@ import java.util.Date;
  * Index all text files under a directory.
  */
 public class IndexFiles {
-  private enum FieldTypes {
-    STRING_FIELD, TEXT_FIELD, LOCATION_FIELD
-  }
+
+  /** Name of the records of bulk containers, which identifies them for updates and deletions. */
+  static final String ID_FIELD = "id";
+
   private IndexFiles(String args[]) {
 
     String usage = "IndexFiles"
-            + " [-index INDEX_PATH] [-docs DOCS_PATH] [-update]\n\n"
+            + " [-index INDEX_PATH] [-docs DOCS_PATH | -bulk BULK_FILE] [-update|-incremental] [-threads N]\n"
+            + " [-profile default|bulk] [-ramBuffer MB] [-mergeThreads N] [-compound true|false]\n"
+            + " [-codec speed|compression] [-forceMerge] [-shards N] [-metrics METRICS_FILE]\n"
+            + " [-stemCache N]\n\n"
             + "This indexes the documents in DOCS_PATH, creating a Lucene index"
-            + "in INDEX_PATH that can be searched with SearchFiles";
+            + "in INDEX_PATH that can be searched with SearchFiles.\n"
+            + "With -bulk the records are read from a single OAI-PMH ListRecords response\n"
+            + "or line-doc file, which may be gzip compressed.\n"
+            + "With -incremental only new and changed files are indexed and the documents\n"
+            + "of the files removed from DOCS_PATH are deleted. It can not update an index\n"
+            + "with records of bulk containers.\n"
+            + "The bulk profile uses a large RAM buffer, a merge thread per core, no compound\n"
+            + "files and merges the index into a single segment; each option overrides it.\n"
+            + "With -shards the documents are partitioned by the hash of their path or id into N indexes\n"
+            + "under INDEX_PATH, each written by its own thread; SearchFiles searches all of them.\n"
+            + "With -metrics the latency of each indexing stage is written at the end, as JSON if\n"
+            + "the file name ends in .json and in the Prometheus text format otherwise.\n"
+            + "With -stemCache N the analyzer remembers the stems of up to N terms, which saves\n"
+            + "stemming the repeated vocabulary again on large builds";
 
     String indexPath = "index";
     String docsPath = null;
+    String bulkPath = null;
     boolean create = true;
+    boolean incremental = false;
+    int threads = 1;
+    String profileName = "default";
+    Double ramBuffer = null;
+    Integer mergeThreads = null;
+    Boolean compound = null;
+    String codec = null;
+    boolean forceMerge = false;
+    int shards = 1;
+    String metricsPath = null;
+    int stemCacheSize = 0;
     for(int i=0;i<args.length;i++) {
       if ("-index".equals(args[i])) {
         indexPath = args[i+1];
@@ -43,17 +73,87 @@ public class IndexFiles {
       } else if ("-docs".equals(args[i])) {
         docsPath = args[i+1];
         i++;
+      } else if ("-bulk".equals(args[i])) {
+        bulkPath = args[i+1];
+        i++;
       } else if ("-update".equals(args[i])) {
         create = false;
+      } else if ("-incremental".equals(args[i])) {
+        create = false;
+        incremental = true;
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-profile".equals(args[i])) {
+        profileName = args[i+1];
+        i++;
+      } else if ("-ramBuffer".equals(args[i])) {
+        ramBuffer = Double.parseDouble(args[i+1]);
+        i++;
+      } else if ("-mergeThreads".equals(args[i])) {
+        mergeThreads = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-compound".equals(args[i])) {
+        compound = Boolean.parseBoolean(args[i+1]);
+        i++;
+      } else if ("-codec".equals(args[i])) {
+        codec = args[i+1];
+        i++;
+      } else if ("-forceMerge".equals(args[i])) {
+        forceMerge = true;
+      } else if ("-shards".equals(args[i])) {
+        shards = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-stemCache".equals(args[i])) {
+        stemCacheSize = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-metrics".equals(args[i])) {
+        metricsPath = args[i+1];
+        Metrics.enable();
+        i++;
+      }
+    }
+
+    IndexProfile.CodecMode codecMode = null;
+    if (codec != null) {
+      try {
+        codecMode = IndexProfile.CodecMode.valueOf(codec.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Unknown codec mode " + codec);
+        System.err.println("Usage: " + usage);
+        System.exit(1);
       }
     }
+    if (!"default".equals(profileName) && !"bulk".equals(profileName)) {
+      System.err.println("Unknown profile " + profileName);
+      System.err.println("Usage: " + usage);
+      System.exit(1);
+    }
 
-    if (docsPath == null) {
+    // the records of a container have no file of their own to detect changes
+    if ((docsPath == null) == (bulkPath == null) || (bulkPath != null && incremental) || shards < 1) {
       System.err.println("Usage: " + usage);
       System.exit(1);
     }
 
-    final File docDir = new File(docsPath);
+    IndexProfile profile = "bulk".equals(profileName) ? IndexProfile.bulk() : IndexProfile.defaults();
+    if (ramBuffer != null) {
+      profile.setRamBufferMB(ramBuffer);
+    }
+    if (mergeThreads != null) {
+      profile.setMergeThreads(mergeThreads);
+    }
+    if (compound != null) {
+      profile.setCompoundFile(compound);
+    }
+    if (codecMode != null) {
+      profile.setCodec(codecMode);
+    }
+    if (forceMerge) {
+      profile.setForceMerge(true);
+    }
+
+    final File docDir = new File(docsPath != null ? docsPath : bulkPath);
     if (!docDir.exists() || !docDir.canRead()) {
       System.out.println("Document directory '" +docDir.getAbsolutePath()+ "' does not exist or is not readable, please check the path");
       System.exit(1);
@@ -63,25 +163,78 @@ public class IndexFiles {
     try {
       System.out.println("Indexing to directory '" + indexPath + "'...");
 
-      Directory dir = FSDirectory.open(Paths.get(indexPath));
-      Analyzer analyzer = new CustomAnalyzer();
-      IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-
+      Path root = Paths.get(indexPath);
       if (create) {
-        // Create a new index in the directory, removing any
-        // previously indexed documents:
-        iwc.setOpenMode(OpenMode.CREATE);
-      } else {
-        // Add new documents to an existing index:
-        iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        Shards.removeStale(root, shards);
+      } else if (Shards.count(root) != (shards > 1 ? shards : 0)
+              && (Shards.count(root) > 0 || DirectoryReader.indexExists(FSDirectory.open(root)))) {
+        // the documents would be routed to other shards than the ones of their previous versions
+        System.out.println("The index in '" + indexPath + "' has " + Shards.count(root)
+                + " shards, update it with the same number of shards");
+        System.exit(1);
       }
 
-      IndexWriter writer = new IndexWriter(dir, iwc);
-      indexDocs(writer, docDir);
-      writer.close();
+      CustomAnalyzer customAnalyzer = new CustomAnalyzer(stemCacheSize);
+      Analyzer analyzer = Metrics.isEnabled() ? Metrics.timed(customAnalyzer) : customAnalyzer;
+      Directory[] dirs = new Directory[shards];
+      IndexWriter[] writers = new IndexWriter[shards];
+      IndexState[] states = incremental ? new IndexState[shards] : null;
+      for (int i = 0; i < shards; i++) {
+        dirs[i] = FSDirectory.open(shards > 1 ? Shards.shardPath(root, i) : root);
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+
+        if (create) {
+          // Create a new index in the directory, removing any
+          // previously indexed documents:
+          iwc.setOpenMode(OpenMode.CREATE);
+        } else {
+          // Add new documents to an existing index:
+          iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        }
+
+        if (states != null) {
+          states[i] = IndexState.load(dirs[i]);
+          if (states[i].hasBulkRecords()) {
+            // the records have no file of their own, so they would never be found by the walk
+            System.out.println("The index in '" + indexPath + "' holds records of bulk containers,"
+                    + " rebuild it instead of updating it with -incremental");
+            System.exit(1);
+          }
+        }
+        writers[i] = profile.open(dirs[i], iwc);
+      }
+      IndexWriter writer = writers[0];
+      IndexState state = states == null ? null : states[0];
+      if (bulkPath != null) {
+        if (threads > 1 || shards > 1) {
+          new ParallelIndexer(writers, threads, null).indexBulk(docDir);
+        } else {
+          BulkReader.read(docDir, (id, file, doc) -> writeDoc(writer, new Term(ID_FIELD, id), file, doc));
+        }
+      } else if (threads > 1 || shards > 1) {
+        new ParallelIndexer(writers, threads, states).index(docDir);
+      } else {
+        indexDocs(writer, docDir, state);
+      }
+      for (int i = 0; i < shards; i++) {
+        if (states != null) {
+          states[i].deleteMissing(writers[i], docDir);
+          System.out.print(shards > 1 ? Shards.SHARD_PREFIX + i + ": " : "");
+          states[i].print();
+        }
+        profile.finish(writers[i]);
+        writers[i].close();
+      }
+      profile.print(dirs);
+      if (customAnalyzer.getStemCache() != null) {
+        System.out.println(customAnalyzer.getStemCache());
+      }
 
       Date end = new Date();
       System.out.println(end.getTime() - start.getTime() + " total milliseconds");
+      if (metricsPath != null) {
+        Metrics.write(Paths.get(metricsPath));
+      }
 
     } catch (IOException e) {
       System.out.println(" caught a " + e.getClass() +
@@ -112,91 +265,141 @@ public class IndexFiles {
    *
    * @param writer Writer to the index where the given file/dir info will be stored
    * @param file The file to index, or the directory to recurse into to find files to index
-   * @throws IOException If there is a low-level I/O error
+   * @param state State of the indexed files to skip the unchanged ones, or null to index every file
+   * @throws IOException If there is a low-level I/O error, or a file or directory can not be read
    */
-  static void indexDocs(IndexWriter writer, File file)
+  static void indexDocs(IndexWriter writer, File file, IndexState state)
           throws IOException {
-    // do not try to index files that cannot be read
-    if (file.canRead()) {
-      if (file.isDirectory()) {
-        String[] files = file.list();
-        // an IO error could occur
-        if (files != null) {
-          for (int i = 0; i < files.length; i++) {
-            indexDocs(writer, new File(file, files[i]));
-          }
-        }
-      } else {
-
-        FileInputStream fis;
-        try {
-          fis = new FileInputStream(file);
-        } catch (FileNotFoundException fnfe) {
-          // at least on windows, some temporary files raise this exception with an "access denied" message
-          // checking if the file can be read doesn't help
-          return;
+    // a file missed by the walk would be deleted by the incremental mode, so the walk fails instead
+    if (!file.canRead()) {
+      throw new IOException("Can not read " + file);
+    }
+    if (file.isDirectory()) {
+      String[] files = file.list();
+      if (files == null) {
+        throw new IOException("Can not list the directory " + file);
+      }
+      for (int i = 0; i < files.length; i++) {
+        indexDocs(writer, new File(file, files[i]), state);
+      }
+    } else if (state == null) {
+      Document doc = parseDoc(file);
+      if (doc != null) {
+        writeDoc(writer, file, doc);
+      }
+    } else {
+      IndexState.Change change = state.needsIndexing(writer, file);
+      if (change != null) {
+        Document doc = change.parse();
+        // a changed file which can not be parsed is deleted, so its stale version is not searched
+        if (doc != null || change.replaces()) {
+          writeDoc(writer, file, doc);
         }
+      }
+    }
+  }
 
-        try {
-
-          // make a new, empty document
-          Document doc = new Document();
-          Field pathField = new StringField("path", file.getPath(), Field.Store.YES);
-          doc.add(pathField);
+  /**
+   * Builds the Lucene document of a Dublin Core file.
+   * @param file The file to parse.
+   * @return The document with the indexed fields, or null if the file could not be read or parsed.
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Document parseDoc(File file) throws IOException {
+    long start = Metrics.start();
+    byte[] content;
+    byte[] hash;
+    try (DigestInputStream fis = IndexState.hashing(new FileInputStream(file))) {
+      // the records are small, so the file is read at once and its read is measured apart from the parse
+      content = fis.readAllBytes();
+      hash = fis.getMessageDigest().digest();
+    } catch (FileNotFoundException fnfe) {
+      // at least on windows, some temporary files raise this exception with an "access denied" message
+      // checking if the file can be read doesn't help
+      return null;
+    }
+    Metrics.record(Metrics.Stage.INDEX_READ, start);
+    return parseDoc(file, content, hash);
+  }
 
+  /**
+   * Builds the Lucene document of a Dublin Core file which was already read.
+   * @param file The file parsed.
+   * @param content The content of the file.
+   * @param hash The content hash of the file, see IndexState.
+   * @return The document with the indexed fields, or null if the file could not be parsed.
+   * @throws IOException If there is a low-level I/O error
+   */
+  static Document parseDoc(File file, byte[] content, byte[] hash) throws IOException {
+    try {
+      long start = Metrics.start();
 
-          org.w3c.dom.Document dc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(fis);
+      // make a new, empty document
+      Document doc = new Document();
+      addPathFields(doc, file);
 
-          indexField(FieldTypes.TEXT_FIELD,	"title",	"dc:title",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"subject",	"dc:subject",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"description",	"dc:description",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"contributor",	"dc:contributor",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"creator",	"dc:creator",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"date",	"dc:date",	dc, doc);
-          indexField(FieldTypes.STRING_FIELD,	"type",	"dc:type",	dc, doc);
-          indexField(FieldTypes.TEXT_FIELD,	"publisher",	"dc:publisher",	dc, doc);
+      DublinCoreParser.get().parse(new ByteArrayInputStream(content), doc);
+      // change detection of the incremental mode
+      doc.add(new NumericDocValuesField(IndexState.MODIFIED_FIELD, file.lastModified()));
+      doc.add(new BinaryDocValuesField(IndexState.HASH_FIELD, new BytesRef(hash)));
 
+      Metrics.record(Metrics.Stage.INDEX_PARSE, start);
+      return doc;
+    } catch (SAXException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
 
-          if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
-            // New index, so we just add the document (no old document can be there):
-            System.out.println("adding " + file);
-            writer.addDocument(doc);
-          } else {
-            // Existing index (an old copy of this document may have been indexed) so
-            // we use updateDocument instead to replace the old one matching the exact
-            // path, if present:
-            System.out.println("updating " + file);
-            writer.updateDocument(new Term("path", file.getPath()), doc);
-          }
+  /**
+   * Adds the fields which identify the source file of a document.
+   * @param doc The document being built
+   * @param file The source file of the document
+   */
+  static void addPathFields(Document doc, File file) {
+    Field pathField = new StringField("path", file.getPath(), Field.Store.YES);
+    doc.add(pathField);
+    // column-stride copy of the file name, read by SearchFiles without loading the stored fields
+    doc.add(new SortedDocValuesField(FilenameResolver.FILENAME_FIELD, new BytesRef(file.getName())));
+  }
 
-        } catch (ParserConfigurationException | SAXException e) {
-          e.printStackTrace();
-        }  finally {
-          fis.close();
-        }
-      }
-    }
+  /**
+   * Adds the document to the index, replacing the previous version of the file if the index is being updated.
+   * @param writer Writer to the index where the document will be stored
+   * @param file The source file of the document
+   * @param doc The document to store, or null if the record was deleted from a bulk container
+   * @throws IOException If there is a low-level I/O error
+   */
+  static void writeDoc(IndexWriter writer, File file, Document doc) throws IOException {
+    writeDoc(writer, new Term("path", file.getPath()), file, doc);
   }
 
   /**
-   * Generic index method which add the different fields to the document.
-   * @param fieldType Type of the field to index.
-   * @param name  Name of the index field.
-   * @param tag Tag of the source document field.
-   * @param dc  DOM document of the source file to index.
-   * @param doc Indexing document.
+   * Adds the document to the index, replacing the previous version with the same key if the index is being updated.
+   * @param writer Writer to the index where the document will be stored
+   * @param key Term which identifies the document: its path, or the id of a record of a bulk container
+   * @param file The source file of the document
+   * @param doc The document to store, or null if the record was deleted from a bulk container
+   * @throws IOException If there is a low-level I/O error
    */
-  private static void indexField(FieldTypes fieldType,  String name, String tag, org.w3c.dom.Document dc, Document doc){
-    NodeList nl = dc.getElementsByTagName(tag);
-    if(nl.item(0) == null)  return;
-    switch(fieldType){
-      case TEXT_FIELD:
-        doc.add(new TextField(name, new BufferedReader(new StringReader(nl.item(0).getTextContent()))));
-        break;
-      case STRING_FIELD:
-        doc.add(new StringField(name, nl.item(0).getTextContent(), Field.Store.YES));
-        break;
-      default:
+  static void writeDoc(IndexWriter writer, Term key, File file, Document doc) throws IOException {
+    long start = Metrics.start();
+    if (doc == null) {
+      if (writer.getConfig().getOpenMode() != OpenMode.CREATE) {
+        System.out.println("deleting " + file);
+        writer.deleteDocuments(key);
+      }
+    } else if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+      // New index, so we just add the document (no old document can be there):
+      System.out.println("adding " + file);
+      writer.addDocument(doc);
+    } else {
+      // Existing index (an old copy of this document may have been indexed) so
+      // we use updateDocument instead to replace the old one matching the exact
+      // key, if present:
+      System.out.println("updating " + file);
+      writer.updateDocument(key, doc);
     }
+    Metrics.record(Metrics.Stage.INDEX_ADD, start);
   }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene86.Lucene86Codec;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Resource profile of the IndexWriter: RAM buffer, merge scheduling, compound files, stored fields codec and an
+ * optional final merge into a single segment. The default profile keeps the Lucene defaults, and the bulk profile
+ * is meant for full rebuilds, where a large buffer and unthrottled merges pay off and a single segment makes the
+ * searches faster. It also counts the flushes and the merge time of the writer it opens.
+ */
+public class IndexProfile {
+
+    /**
+     * Stored fields compression of the codec.
+     */
+    public enum CodecMode {
+        SPEED, COMPRESSION
+    }
+
+    private static final double BULK_RAM_BUFFER_MB = 256;
+
+    private double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private int mergeThreads = ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS;
+    private boolean compoundFile = IndexWriterConfig.DEFAULT_USE_COMPOUND_FILE_SYSTEM;
+    private boolean forceMerge;
+    private CodecMode codec;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+    private long forceMergeNanos;
+
+    /**
+     * @return A profile with the Lucene defaults.
+     */
+    public static IndexProfile defaults() {
+        return new IndexProfile();
+    }
+
+    /**
+     * @return A profile for full rebuilds: a large RAM buffer, one merge thread per core, no compound files and a
+     * final merge into a single segment.
+     */
+    public static IndexProfile bulk() {
+        IndexProfile profile = new IndexProfile();
+        profile.ramBufferMB = BULK_RAM_BUFFER_MB;
+        profile.mergeThreads = Runtime.getRuntime().availableProcessors();
+        profile.compoundFile = false;
+        profile.forceMerge = true;
+        profile.codec = CodecMode.SPEED;
+        return profile;
+    }
+
+    /**
+     * @param ramBufferMB Memory used to buffer documents before they are flushed as a new segment.
+     */
+    public void setRamBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+    }
+
+    /**
+     * @param mergeThreads Number of concurrent merges, sized to the disk and core count by Lucene if it is
+     *                     ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS.
+     */
+    public void setMergeThreads(int mergeThreads) {
+        this.mergeThreads = mergeThreads;
+    }
+
+    public void setCompoundFile(boolean compoundFile) {
+        this.compoundFile = compoundFile;
+    }
+
+    /**
+     * @param forceMerge true to merge the index into a single segment before the writer is closed.
+     */
+    public void setForceMerge(boolean forceMerge) {
+        this.forceMerge = forceMerge;
+    }
+
+    /**
+     * @param codec Stored fields compression, or null to keep the default codec.
+     */
+    public void setCodec(CodecMode codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Applies the profile to a configuration and opens the writer.
+     * @param dir Directory of the index.
+     * @param iwc Configuration with the analyzer and the open mode already set.
+     * @return The writer, which counts its flushes in this profile.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public IndexWriter open(Directory dir, IndexWriterConfig iwc) throws IOException {
+        iwc.setRAMBufferSizeMB(ramBufferMB);
+        iwc.setUseCompoundFile(compoundFile);
+        MergePolicy mergePolicy = iwc.getMergePolicy();
+        if (!compoundFile && mergePolicy instanceof TieredMergePolicy) {
+            // the merged segments would still be compound files below the default ratio
+            mergePolicy.setNoCFSRatio(0.0);
+        }
+        if (codec != null) {
+            iwc.setCodec(new Lucene86Codec(codec == CodecMode.SPEED
+                    ? Lucene50StoredFieldsFormat.Mode.BEST_SPEED
+                    : Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+        }
+
+        ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    super.doMerge(mergeSource, merge);
+                } finally {
+                    mergeNanos.addAndGet(System.nanoTime() - start);
+                    merges.incrementAndGet();
+                }
+            }
+        };
+        if (mergeThreads != ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS) {
+            // a few pending merges more than threads, so the indexing threads are not stalled too early
+            scheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+            scheduler.disableAutoIOThrottle();
+        }
+        iwc.setMergeScheduler(scheduler);
+
+        return new IndexWriter(dir, iwc) {
+            @Override
+            protected void doAfterFlush() {
+                flushes.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Runs the final merge of the profile, if any. It must be called when all the documents have been written.
+     * @param writer Writer opened by this profile.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public void finish(IndexWriter writer) throws IOException {
+        if (forceMerge) {
+            long start = System.nanoTime();
+            writer.forceMerge(1);
+            forceMergeNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Prints the configuration and the statistics of the writers, once they have been closed.
+     * @param dirs Directory of the index, or of each of its shards.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public void print(Directory... dirs) throws IOException {
+        int segments = 0;
+        for (Directory dir : dirs) {
+            segments += SegmentInfos.readLatestCommit(dir).size();
+        }
+        System.out.printf("profile: %.0f MB RAM buffer, %s merge threads, compound files %s, codec %s%n",
+                ramBufferMB,
+                mergeThreads == ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS ? "auto" : mergeThreads,
+                compoundFile ? "on" : "off", codec == null ? "default" : codec.name().toLowerCase());
+        System.out.printf("%d segments, %d flushes, %d merges in %d ms%s%n",
+                segments, flushes.get(), merges.get(), mergeNanos.get() / 1000000,
+                forceMerge ? " (force merge " + forceMergeNanos / 1000000 + " ms)" : "");
+    }
+}
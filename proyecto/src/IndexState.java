@@ -0,0 +1,275 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Modification time and content hash of the files of an existing index, used by the incremental mode of
+ * IndexFiles. Unchanged files are skipped, changed files are indexed again and the documents of the files which
+ * were not found in the collection are deleted at the end. Only the documents indexed with a modification time
+ * are tracked. It can be shared by the threads of the indexer.
+ */
+public class IndexState {
+
+    public static final String MODIFIED_FIELD = "modified";
+    public static final String HASH_FIELD = "hash";
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private final Map<String, Entry> entries;
+    private final boolean bulkRecords;
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong touched = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private long deleted;
+
+    private IndexState(Map<String, Entry> entries, boolean bulkRecords) {
+        this.entries = entries;
+        this.bulkRecords = bulkRecords;
+    }
+
+    /**
+     * Loads the state of the files of an index. The columns are read segment by segment in doc id order.
+     * @param dir Directory of the index, which may not exist yet.
+     * @return The state of the indexed files.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public static IndexState load(Directory dir) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        boolean bulkRecords = false;
+        if (!DirectoryReader.indexExists(dir)) {
+            return new IndexState(entries, false);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leaf = context.reader();
+                bulkRecords |= hasLiveDocs(leaf, IndexFiles.ID_FIELD);
+                NumericDocValues modified = leaf.getNumericDocValues(MODIFIED_FIELD);
+                if (modified == null) {
+                    continue;
+                }
+                String[] paths = paths(leaf);
+                BinaryDocValues hashes = leaf.getBinaryDocValues(HASH_FIELD);
+                for (int doc = 0; doc < paths.length; doc++) {
+                    // only the files indexed with their state are tracked: the records of bulk containers and the
+                    // documents of older indexes are never deleted as missing
+                    if (paths[doc] == null || !modified.advanceExact(doc)) {
+                        continue;
+                    }
+                    byte[] hash = hashes != null && hashes.advanceExact(doc)
+                            ? BytesRef.deepCopyOf(hashes.binaryValue()).bytes : new byte[0];
+                    entries.put(paths[doc], new Entry(modified.longValue(), hash));
+                }
+            }
+        }
+        return new IndexState(entries, bulkRecords);
+    }
+
+    /**
+     * @return Whether a live document of a segment has the given field.
+     */
+    private static boolean hasLiveDocs(LeafReader leaf, String field) throws IOException {
+        Terms terms = leaf.terms(field);
+        if (terms == null) {
+            return false;
+        }
+        Bits liveDocs = leaf.getLiveDocs();
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        while (termsEnum.next() != null) {
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the index holds records of bulk containers, which the incremental mode can not update.
+     */
+    public boolean hasBulkRecords() {
+        return bulkRecords;
+    }
+
+    /**
+     * Path of each live document of a segment, from the terms of the path field.
+     */
+    private static String[] paths(LeafReader leaf) throws IOException {
+        String[] paths = new String[leaf.maxDoc()];
+        Terms terms = leaf.terms("path");
+        if (terms == null) {
+            return paths;
+        }
+        Bits liveDocs = leaf.getLiveDocs();
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            String path = term.utf8ToString();
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    paths[doc] = path;
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Decides if a file has to be indexed. A file whose modification time changed but whose content did not only
+     * gets its stored time updated.
+     * @param writer Writer of the index.
+     * @param file File found in the collection.
+     * @return null if the file is unchanged, or the change to index if the file is new or its content changed.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public Change needsIndexing(IndexWriter writer, File file) throws IOException {
+        Entry entry = entries.remove(file.getPath());
+        if (entry == null) {
+            indexed.incrementAndGet();
+            return new Change(file, null, null);
+        }
+        long time = file.lastModified();
+        if (entry.modified == time) {
+            unchanged.incrementAndGet();
+            return null;
+        }
+        long start = Metrics.start();
+        byte[] content;
+        byte[] hash;
+        try (DigestInputStream in = hashing(Files.newInputStream(file.toPath()))) {
+            // kept to parse the file if it changed, so it is read once
+            content = in.readAllBytes();
+            hash = in.getMessageDigest().digest();
+        }
+        Metrics.record(Metrics.Stage.INDEX_READ, start);
+        if (Arrays.equals(hash, entry.hash)) {
+            writer.updateNumericDocValue(new Term("path", file.getPath()), MODIFIED_FIELD, time);
+            touched.incrementAndGet();
+            return null;
+        }
+        indexed.incrementAndGet();
+        return new Change(file, content, hash);
+    }
+
+    /**
+     * Deletes the documents of the files under the walked directory which were not found since the state was
+     * loaded. The files indexed from other directories are kept.
+     * @param writer Writer of the index.
+     * @param root   Directory walked.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public void deleteMissing(IndexWriter writer, File root) throws IOException {
+        String prefix = root.getPath().endsWith(File.separator) ? root.getPath() : root.getPath() + File.separator;
+        for (String path : entries.keySet()) {
+            if (!path.startsWith(prefix)) {
+                continue;
+            }
+            System.out.println("deleting " + path);
+            writer.deleteDocuments(new Term("path", path));
+            deleted++;
+        }
+        entries.clear();
+    }
+
+    /**
+     * Prints how many files were skipped, indexed and deleted.
+     */
+    public void print() {
+        System.out.println(this);
+    }
+
+    @Override
+    public String toString() {
+        return indexed.get() + " indexed, " + unchanged.get() + " unchanged, "
+                + touched.get() + " touched without changes, " + deleted + " deleted";
+    }
+
+    /**
+     * Wraps a stream to compute the content hash of the bytes read through it.
+     * @param in Stream of a source file.
+     * @return A DigestInputStream over the stream.
+     */
+    public static DigestInputStream hashing(InputStream in) {
+        try {
+            return new DigestInputStream(in, MessageDigest.getInstance(HASH_ALGORITHM));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * New or changed file which has to be indexed.
+     */
+    public static final class Change {
+        private final File file;
+        private final byte[] content;
+        private final byte[] hash;
+
+        /**
+         * @param content Content of a changed file, already read to compare its hash, or null for a new file.
+         * @param hash    Hash of the content, or null for a new file.
+         */
+        private Change(File file, byte[] content, byte[] hash) {
+            this.file = file;
+            this.content = content;
+            this.hash = hash;
+        }
+
+        /**
+         * Builds the document of the file, reusing the content read to detect the change.
+         * @return The document, or null if the file could not be read or parsed.
+         * @throws IOException If there is a low-level I/O error
+         */
+        public Document parse() throws IOException {
+            return content == null ? IndexFiles.parseDoc(file) : IndexFiles.parseDoc(file, content, hash);
+        }
+
+        /**
+         * @return true if the file has a previous version in the index, which has to be deleted if the new one can
+         * not be parsed.
+         */
+        public boolean replaces() {
+            return content != null;
+        }
+    }
+
+    private static final class Entry {
+        final long modified;
+        final byte[] hash;
+
+        Entry(long modified, byte[] hash) {
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Latency of the stages of indexing and searching. Every stage keeps a counter, the total and maximum time and a
+ * histogram with a bucket per power of two nanoseconds, all of them updated without locks, and every measure is
+ * also committed as a JFR event when a recording enables it. The measures are only taken once enable is called, so
+ * a run without metrics pays a field read per stage. At the end of a run the metrics are written in JSON or in the
+ * Prometheus text format. The events are recorded with java -XX:StartFlightRecording=filename=run.jfr.
+ *
+ * Usage: long start = Metrics.start(); ...; Metrics.record(Metrics.Stage.SEARCH, start);
+ */
+public final class Metrics {
+
+    /**
+     * Measured stages. Some of them contain others: parse contains field extraction, add document contains
+     * analysis, and query build contains the detectors.
+     */
+    public enum Stage {
+        INDEX_READ("Reading of a file"),
+        INDEX_PARSE("XML parsing of a record"),
+        INDEX_FIELDS("Extraction of a field of a record"),
+        INDEX_ANALYSIS("Analysis and inversion of a field"),
+        INDEX_ADD("Addition of a document to the index"),
+        SEARCH_DETECT("Entity and intent detection of a need"),
+        SEARCH_QUERY("Build of the query of a need"),
+        SEARCH_SEARCH("Search of a query"),
+        SEARCH_FETCH("Fetch of the file names of the hits"),
+        SEARCH_OUTPUT("Output of the results of a need");
+
+        final String description;
+        final Histogram histogram = new Histogram();
+
+        Stage(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return The name of the stage in the dumps.
+         */
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // le bounds of the Prometheus buckets, from 2^10 ns (1 us) to 2^36 ns (69 s)
+    private static final int FIRST_BUCKET = 10;
+    private static final int LAST_BUCKET = 36;
+
+    private static volatile boolean enabled;
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts taking measures.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The start time of a stage, or 0 if the metrics are not enabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a stage which started at the given time.
+     * @param stage Stage measured.
+     * @param start Value returned by start when the stage began.
+     */
+    public static void record(Stage stage, long start) {
+        if (start == 0 || !enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        stage.histogram.record(nanos);
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.key();
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes the metrics of all the stages which were measured. A file name ending in .json gets JSON and any
+     * other one the Prometheus text format.
+     * @param path Path of the file.
+     * @throws IOException If the file can not be written
+     */
+    public static void write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if (path.getFileName().toString().endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writePrometheus(out);
+            }
+        }
+    }
+
+    /**
+     * Wraps an indexing analyzer to measure the analysis of each field, from the reset of its token stream to its
+     * end. The indexer inverts each token as soon as it is produced, so the inversion is measured too.
+     * @param analyzer Analyzer of the index.
+     * @return The measured analyzer.
+     */
+    public static Analyzer timed(Analyzer analyzer) {
+        return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getSource(),
+                        new TimingFilter(components.getTokenStream()));
+            }
+        };
+    }
+
+    private static void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            Histogram h = stage.histogram;
+            long count = h.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            out.write(separator);
+            separator = ",\n";
+            out.write(String.format(Locale.ROOT, "    \"%s\": {\"description\": \"%s\", \"count\": %d, "
+                            + "\"sum_ns\": %d, \"mean_ns\": %d, \"max_ns\": %d, \"p50_ns\": %d, \"p90_ns\": %d, "
+                            + "\"p99_ns\": %d, \"buckets\": {",
+                    stage.key(), stage.description, count, h.sum.sum(), h.sum.sum() / count, h.max.get(),
+                    h.percentile(0.5), h.percentile(0.9), h.percentile(0.99)));
+            String bucketSeparator = "";
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                long n = h.buckets.get(i);
+                if (n > 0) {
+                    // the key is the inclusive upper bound of the bucket in nanoseconds
+                    out.write(bucketSeparator + "\"" + Histogram.upperBound(i) + "\": " + n);
+                    bucketSeparator = ", ";
+                }
+            }
+            out.write("}}");
+        }
+        out.write("\n  }\n}\n");
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format.
+     * @param out Writer of the metrics. It is not closed.
+     * @throws IOException If the metrics can not be written
+     */
+    public static void writePrometheus(Writer out) throws IOException {
+        out.write("# HELP proyecto_stage_seconds Latency of the stages of indexing and searching.\n");
+        out.write("# TYPE proyecto_stage_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            Histogram h = stage.histogram;
+            long count = h.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            long cumulative = 0;
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                cumulative += h.buckets.get(i);
+                if (i >= FIRST_BUCKET && i <= LAST_BUCKET) {
+                    out.write(String.format(Locale.ROOT, "proyecto_stage_seconds_bucket{stage=\"%s\",le=\"%s\"} %d%n",
+                            stage.key(), seconds(Histogram.upperBound(i)), cumulative));
+                }
+            }
+            out.write(String.format(Locale.ROOT, "proyecto_stage_seconds_bucket{stage=\"%s\",le=\"+Inf\"} %d%n",
+                    stage.key(), count));
+            out.write(String.format(Locale.ROOT, "proyecto_stage_seconds_sum{stage=\"%s\"} %s%n",
+                    stage.key(), seconds(h.sum.sum())));
+            out.write(String.format(Locale.ROOT, "proyecto_stage_seconds_count{stage=\"%s\"} %d%n",
+                    stage.key(), count));
+        }
+        out.write("# HELP proyecto_stage_max_seconds Slowest run of the stages.\n");
+        out.write("# TYPE proyecto_stage_max_seconds gauge\n");
+        for (Stage stage : Stage.values()) {
+            if (stage.histogram.count.sum() > 0) {
+                out.write(String.format(Locale.ROOT, "proyecto_stage_max_seconds{stage=\"%s\"} %s%n",
+                        stage.key(), seconds(stage.histogram.max.get())));
+            }
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * Lock-free latency histogram. Bucket 0 counts the times t <= 1 and bucket i the times t with
+     * 2^(i-1) < t <= 2^i nanoseconds, so the upper bound of a bucket is inclusive, as the le bound of Prometheus.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 64;
+
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+            int bucket = nanos <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, bucket));
+        }
+
+        static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        /**
+         * @return The upper bound of the bucket of the given quantile.
+         */
+        long percentile(double quantile) {
+            long total = count.sum();
+            long rank = (long) Math.ceil(quantile * total);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    /**
+     * Measures the analysis of a field from the reset of its token stream to its end.
+     */
+    private static final class TimingFilter extends TokenFilter {
+        private long start;
+
+        TimingFilter(TokenStream in) {
+            super(in);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            start = start();
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            return input.incrementToken();
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            record(Stage.INDEX_ANALYSIS, start);
+            start = 0;
+        }
+    }
+
+    /**
+     * JFR event of a measured stage. It is committed when the stage ends, with the duration of the stage.
+     */
+    @Name("proyecto.Stage")
+    @Label("Stage")
+    @Category("Proyecto")
+    @Description("Indexing or search stage measured by Metrics")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,64 @@
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Terms of a query with the boost of each field they are searched in. A term added several times to the same
+ * field, by the text and by an entity or by two entities, keeps a single entry with the sum of the boosts, and all
+ * the fields of a term are scored by one clause. As a term query scores in proportion to its boost, the query
+ * built gives every document the same score as one clause per field and occurrence, with a single postings
+ * cursor per field and term.
+ */
+public class MultiFieldTerms {
+
+    // the disjunction adds the scores of all its fields instead of keeping the best one
+    private static final float TIE_BREAKER = 1.0f;
+
+    private final Map<String, Map<String, Float>> boosts = new LinkedHashMap<>();
+
+    /**
+     * Adds some terms to a field.
+     * @param field Field to search.
+     * @param terms Analyzed terms, repeated terms included.
+     * @param boost Boost of each occurrence of the terms.
+     */
+    public void add(String field, String[] terms, float boost) {
+        for (String term : terms) {
+            boosts.computeIfAbsent(term, t -> new LinkedHashMap<>()).merge(field, boost, Float::sum);
+        }
+    }
+
+    /**
+     * @return The number of distinct terms, which is the number of clauses added by addTo.
+     */
+    public int size() {
+        return boosts.size();
+    }
+
+    /**
+     * Adds an optional clause for each term: its boosted term query when it has a single field, and otherwise a
+     * disjunction of the term queries of its fields which sums their scores.
+     * @param builder Builder of the query of the need.
+     */
+    public void addTo(BooleanQuery.Builder builder) {
+        for (Map.Entry<String, Map<String, Float>> term : boosts.entrySet()) {
+            List<Query> fields = new ArrayList<>(term.getValue().size());
+            for (Map.Entry<String, Float> field : term.getValue().entrySet()) {
+                fields.add(new BoostQuery(new TermQuery(new Term(field.getKey(), term.getKey())), field.getValue()));
+            }
+            Query query = fields.size() == 1 ? fields.get(0) : new DisjunctionMaxQuery(fields, TIE_BREAKER);
+            builder.add(query, BooleanClause.Occur.SHOULD);
+        }
+    }
+}
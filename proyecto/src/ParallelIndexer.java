@@ -0,0 +1,353 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * This class indexes a document collection with a producer/consumer pipeline of three stages: directory walking,
+ * XML parsing and document writing. The stages are connected by bounded queues, so a slow stage blocks the
+ * previous ones instead of filling the memory. A bulk container is read by a single stage which feeds the writers
+ * directly. A sharded index has a documents queue and a writer thread per shard, and the documents are routed to
+ * the shard of their path.
+ */
+public class ParallelIndexer {
+
+    private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+    private static final File END_OF_FILES = new File("");
+    private static final ParsedDoc END_OF_DOCS = new ParsedDoc(null, null, null);
+
+    private final IndexWriter[] writers;
+    private final IndexState[] states;
+    private final int threads;
+    private final int writeThreads;
+    private final BlockingQueue<File> files;
+    private final List<BlockingQueue<ParsedDoc>> docs = new ArrayList<>();
+    private final AtomicInteger producers = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final Stage readStage = new Stage("read");
+    private final Stage walkStage = new Stage("walk");
+    private final Stage parseStage = new Stage("parse");
+    private final Stage writeStage = new Stage("write");
+
+    /**
+     * @param writers Writers of the shards of the index, or the only writer of a single index, which is shared by
+     *                all the threads of the write stage. Each shard is written by a thread of its own.
+     * @param threads Number of threads of the parse stage, and of the write stage of a single index.
+     * @param states  State of the indexed files of each shard to skip the unchanged ones, or null to index every
+     *                file.
+     */
+    public ParallelIndexer(IndexWriter[] writers, int threads, IndexState[] states) {
+        this.writers = writers;
+        this.states = states;
+        this.threads = threads;
+        this.writeThreads = writers.length == 1 ? threads : 1;
+        this.files = new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD);
+        for (int i = 0; i < writers.length; i++) {
+            docs.add(new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD));
+        }
+    }
+
+    /**
+     * Indexes all the files under the given directory and prints the throughput of each stage.
+     * @param root The file to index, or the directory to recurse into to find files to index
+     * @throws IOException If any stage fails with a low-level I/O error
+     */
+    public void index(File root) throws IOException {
+        List<Thread> workers = new ArrayList<>();
+        workers.add(new Thread(() -> walk(root), "index-walk"));
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(this::parse, "index-parse-" + i));
+        }
+        producers.set(threads);
+        addWriters(workers);
+        run(workers);
+
+        walkStage.print();
+        parseStage.print();
+        writeStage.print();
+    }
+
+    /**
+     * Indexes all the records of a bulk container and prints the throughput of each stage.
+     * @param container OAI-PMH response or line-doc file, read by BulkReader.
+     * @throws IOException If any stage fails with a low-level I/O error
+     */
+    public void indexBulk(File container) throws IOException {
+        List<Thread> workers = new ArrayList<>();
+        workers.add(new Thread(() -> read(container), "index-read"));
+        producers.set(1);
+        addWriters(workers);
+        run(workers);
+
+        readStage.print();
+        writeStage.print();
+    }
+
+    private void addWriters(List<Thread> workers) {
+        for (int shard = 0; shard < writers.length; shard++) {
+            for (int i = 0; i < writeThreads; i++) {
+                int queue = shard;
+                workers.add(new Thread(() -> write(queue), "index-write-" + workers.size()));
+            }
+        }
+    }
+
+    /**
+     * Runs the threads of the stages until all of them finish and rethrows the first failure.
+     */
+    private void run(List<Thread> workers) throws IOException {
+        for (Thread t : workers) {
+            t.start();
+        }
+        try {
+            for (Thread t : workers) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread t : workers) {
+                t.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("Indexing interrupted", e);
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Producer stage of a bulk container: parses its records and queues them for the writers.
+     */
+    private void read(File container) {
+        readStage.begin();
+        try {
+            BulkReader.read(container, (id, file, doc) -> {
+                if (failure.get() != null) {
+                    return;
+                }
+                try {
+                    // routed by the id, so a record goes to the shard of its previous version from any container
+                    docs.get(shardOf(id)).put(new ParsedDoc(new Term(IndexFiles.ID_FIELD, id), file, doc));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Indexing interrupted");
+                }
+                readStage.count();
+            });
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            readStage.end();
+            endOfDocs();
+        }
+    }
+
+    /**
+     * Producer stage: walks the directory tree and queues its files. A file or directory which can not be read fails
+     * the indexing.
+     */
+    private void walk(File root) {
+        walkStage.begin();
+        try {
+            walk(root, true);
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            walkStage.end();
+            // Each parser stops after taking one end mark
+            for (int i = 0; i < threads; i++) {
+                putQuietly(files, END_OF_FILES);
+            }
+        }
+    }
+
+    private void walk(File file, boolean root) throws InterruptedException, IOException {
+        if (!root && failure.get() != null) {
+            return;
+        }
+        // a file missed by the walk would be deleted by the incremental mode, so the walk fails instead
+        if (!file.canRead()) {
+            throw new IOException("Can not read " + file);
+        }
+        if (file.isDirectory()) {
+            String[] children = file.list();
+            if (children == null) {
+                throw new IOException("Can not list the directory " + file);
+            }
+            for (String child : children) {
+                walk(new File(file, child), false);
+            }
+        } else {
+            files.put(file);
+            walkStage.count();
+        }
+    }
+
+    /**
+     * Middle stage: parses the queued files into Lucene documents.
+     */
+    private void parse() {
+        parseStage.begin();
+        try {
+            File file;
+            while ((file = files.take()) != END_OF_FILES) {
+                int shard = shardOf(file.getPath());
+                if (failure.get() != null) {
+                    continue;
+                }
+                Document doc;
+                boolean replaces = false;
+                if (states == null) {
+                    doc = IndexFiles.parseDoc(file);
+                } else {
+                    IndexState.Change change = states[shard].needsIndexing(writers[shard], file);
+                    if (change == null) {
+                        continue;
+                    }
+                    doc = change.parse();
+                    replaces = change.replaces();
+                }
+                // a changed file which can not be parsed goes to the writer without document to be deleted
+                if (doc != null || replaces) {
+                    docs.get(shard).put(new ParsedDoc(new Term("path", file.getPath()), file, doc));
+                    parseStage.count();
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+            drain(files, END_OF_FILES);
+        } finally {
+            parseStage.end();
+            endOfDocs();
+        }
+    }
+
+    /**
+     * Consumer stage: analyzes and adds the parsed documents of a shard to its writer.
+     */
+    private void write(int shard) {
+        writeStage.begin();
+        BlockingQueue<ParsedDoc> queue = docs.get(shard);
+        try {
+            ParsedDoc parsed;
+            while ((parsed = queue.take()) != END_OF_DOCS) {
+                if (failure.get() != null) {
+                    continue;
+                }
+                IndexFiles.writeDoc(writers[shard], parsed.key, parsed.file, parsed.doc);
+                writeStage.count();
+            }
+        } catch (Throwable t) {
+            fail(t);
+            drain(queue, END_OF_DOCS);
+        } finally {
+            writeStage.end();
+        }
+    }
+
+    private int shardOf(String key) {
+        return writers.length == 1 ? 0 : Shards.shardOf(key, writers.length);
+    }
+
+    /**
+     * Called by each producer of documents when it finishes. The last one queues an end mark for every writer,
+     * and each writer stops after taking one.
+     */
+    private void endOfDocs() {
+        if (producers.decrementAndGet() == 0) {
+            for (BlockingQueue<ParsedDoc> queue : docs) {
+                for (int i = 0; i < writeThreads; i++) {
+                    putQuietly(queue, END_OF_DOCS);
+                }
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure.compareAndSet(null, t);
+    }
+
+    /**
+     * Keeps consuming a queue until its end mark after a failure, so the producers are never blocked forever.
+     */
+    private static <T> void drain(BlockingQueue<T> queue, T end) {
+        try {
+            while (queue.take() != end) {
+                // discard
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> void putQuietly(BlockingQueue<T> queue, T element) {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Document parsed by the middle stage and waiting to be written.
+     */
+    private static class ParsedDoc {
+        final Term key;
+        final File file;
+        final Document doc;
+
+        ParsedDoc(Term key, File file, Document doc) {
+            this.key = key;
+            this.file = file;
+            this.doc = doc;
+        }
+    }
+
+    /**
+     * Throughput counters of a pipeline stage. The elapsed time goes from the first thread of the stage starting
+     * to the last one finishing.
+     */
+    private static class Stage {
+        private final String name;
+        private long docs;
+        private long start = Long.MAX_VALUE;
+        private long end;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        synchronized void begin() {
+            start = Math.min(start, System.nanoTime());
+        }
+
+        synchronized void count() {
+            docs++;
+        }
+
+        synchronized void end() {
+            end = Math.max(end, System.nanoTime());
+        }
+
+        void print() {
+            double seconds = Math.max(end - start, 1) / 1e9;
+            System.out.printf("%-6s %d documents in %.2f s (%.1f documents/second)%n",
+                    name, docs, seconds, docs / seconds);
+        }
+    }
+}
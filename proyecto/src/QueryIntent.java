@@ -0,0 +1,121 @@
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Date range and academic work types requested by an information need. The date and type patterns of
+ * DateDetector and TypeDetector are compiled once into a single automaton, so the sentence is scanned only once.
+ * The recognizer is thread safe and the result objects can be reused between sentences.
+ */
+public class QueryIntent {
+
+    private static final Pattern INTENTS = Pattern.compile(
+            "(?<range>" + DateDetector.PUBLISHED_RANGE_PATTERN + ")"
+                    + "|(?<last>" + DateDetector.LAST_N_YEARS_PATTERN + ")"
+                    + "|(?<tfg>" + TypeDetector.TFG_PATTERN + ")"
+                    + "|(?<tfm>" + TypeDetector.TFM_PATTERN + ")"
+                    + "|(?<works>" + TypeDetector.WORKS_PATTERN + ")"
+                    + "|(?<thesis>" + TypeDetector.THESIS_PATTERN + ")",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    private boolean dateRange;
+    private int beginYear;
+    private int endYear;
+    private final EnumSet<TypeDetector.AcademicWorkType> workTypes = EnumSet.noneOf(TypeDetector.AcademicWorkType.class);
+
+    /**
+     * Recognizes the intents of a sentence.
+     * @param sentence Text to detect patterns.
+     * @param intent Result object to fill, its previous content is discarded.
+     * @return The given result object.
+     */
+    public static QueryIntent recognize(String sentence, QueryIntent intent) {
+        intent.clear();
+        boolean rangeFound = false;
+        boolean lastYearsFound = false;
+        boolean tfg = false;
+        boolean tfm = false;
+        boolean works = false;
+
+        Matcher matcher = INTENTS.matcher(sentence);
+        while (matcher.find()) {
+            if (matcher.start("range") >= 0) {
+                if (!rangeFound) {
+                    // an explicit range wins over "the last n years"
+                    rangeFound = true;
+                    intent.setRange(Integer.parseInt(matcher.group("rangeBegin")),
+                            Integer.parseInt(matcher.group("rangeEnd")));
+                }
+            } else if (matcher.start("last") >= 0) {
+                if (!rangeFound && !lastYearsFound) {
+                    lastYearsFound = true;
+                    int offset = Integer.parseInt(matcher.group("lastYears"));
+                    int currentYear = Calendar.getInstance().get(Calendar.YEAR);
+                    intent.setRange(currentYear - offset, currentYear);
+                }
+            } else if (matcher.start("tfg") >= 0) {
+                tfg = true;
+            } else if (matcher.start("tfm") >= 0) {
+                tfm = true;
+            } else if (matcher.start("works") >= 0) {
+                works = true;
+            } else {
+                intent.workTypes.add(TypeDetector.AcademicWorkType.TESIS);
+            }
+        }
+
+        if (tfg) {
+            intent.workTypes.add(TypeDetector.AcademicWorkType.TFG);
+        }
+        if (tfm) {
+            intent.workTypes.add(TypeDetector.AcademicWorkType.TFM);
+        }
+        if (works && !tfm && !tfg) {
+            intent.workTypes.add(TypeDetector.AcademicWorkType.TFG);
+            intent.workTypes.add(TypeDetector.AcademicWorkType.TFM);
+        }
+        return intent;
+    }
+
+    /**
+     * Discards the recognized intents.
+     */
+    public void clear() {
+        dateRange = false;
+        beginYear = 0;
+        endYear = 0;
+        workTypes.clear();
+    }
+
+    private void setRange(int beginYear, int endYear) {
+        this.dateRange = true;
+        this.beginYear = beginYear;
+        this.endYear = endYear;
+    }
+
+    /**
+     * @return true if the sentence asks for a range of years.
+     */
+    public boolean hasDateRange() {
+        return dateRange;
+    }
+
+    public int getBeginYear() {
+        return beginYear;
+    }
+
+    public int getEndYear() {
+        return endYear;
+    }
+
+    /**
+     * @return The types of academic works of the sentence. The set belongs to this result object.
+     */
+    public Set<TypeDetector.AcademicWorkType> getWorkTypes() {
+        return workTypes;
+    }
+}
@@ -0,0 +1,166 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Cache of the top results of the queries, doc ids and scores, so a repeated need is not searched again. The key
+ * is the built query, whose equality ignores the order of the boolean clauses, together with the number of
+ * results, the sort and the reader searched. When another reader, such as a refreshed one, is searched the
+ * entries of the previous one are dropped, since their doc ids are no longer valid. The least recently used entry
+ * is evicted when it is full. It is thread safe.
+ */
+public class QueryResultCache {
+
+    /**
+     * Search run on a miss.
+     */
+    public interface Search {
+        TopDocs search() throws IOException;
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, TopDocs> entries;
+    private Object readerKey;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param capacity Maximum number of cached queries.
+     */
+    public QueryResultCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, TopDocs>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TopDocs> eldest) {
+                if (size() > QueryResultCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached results of a query or searches and caches them. The lock is not held during the search,
+     * so two threads missing the same query both search it.
+     * @param reader Reader searched. Readers without a cache key, of their own or of all their segments, are never
+     *               cached.
+     * @param query  Query to search.
+     * @param depth  Number of results asked for.
+     * @param sort   Order of the results, or null for the score order.
+     * @param search Search of the query, run on a miss.
+     * @return The results. They are shared and must not be modified.
+     * @throws IOException If the search fails
+     */
+    public TopDocs search(IndexReader reader, Query query, int depth, Sort sort, Search search) throws IOException {
+        Object cacheKey = readerKey(reader);
+        if (cacheKey == null) {
+            return search.search();
+        }
+        Key key = new Key(cacheKey, query, depth, sort);
+        synchronized (this) {
+            TopDocs cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        TopDocs results = search.search();
+        synchronized (this) {
+            if (!key.reader.equals(readerKey)) {
+                // a refreshed reader: the doc ids of the previous one mean nothing now
+                invalidate(key.reader);
+            }
+            entries.put(key, results);
+        }
+        return results;
+    }
+
+    /**
+     * A MultiReader over several shards has no cache key of its own, but it searches the same documents as long as
+     * its segments are the same, so it is identified by the keys of its segments.
+     * @return The cache key of the reader, or null if it can not be cached.
+     */
+    private static Object readerKey(IndexReader reader) {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper != null) {
+            return helper.getKey();
+        }
+        List<IndexReader.CacheKey> segments = new ArrayList<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            IndexReader.CacheHelper segment = leaf.reader().getReaderCacheHelper();
+            if (segment == null) {
+                return null;
+            }
+            segments.add(segment.getKey());
+        }
+        return segments;
+    }
+
+    /**
+     * Drops the entries of the readers other than the given one.
+     */
+    private void invalidate(Object newReaderKey) {
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if (!it.next().reader.equals(newReaderKey)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+        readerKey = newReaderKey;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations, %d entries",
+                hits, misses, lookups == 0 ? 0 : 100.0 * hits / lookups, evictions, invalidations, entries.size());
+    }
+
+    private static final class Key {
+        final Object reader;
+        final Query query;
+        final int depth;
+        final Sort sort;
+        private final int hash;
+
+        Key(Object reader, Query query, int depth, Sort sort) {
+            this.reader = reader;
+            this.query = query;
+            this.depth = depth;
+            this.sort = sort;
+            this.hash = Objects.hash(reader, query, depth, sort);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return depth == other.depth && reader.equals(other.reader) && query.equals(other.query)
+                    && Objects.equals(sort, other.sort);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Output file of the results of a run, with the format INFORMATION-IDENTIFIER\tRESULT-FILE-NAME. The file stays
+ * open for the whole run and the lines are encoded straight into a direct buffer. It can be shared by several
+ * threads: the lines of each call are written together.
+ */
+public class ResultWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Creates the output file, replacing any previous one.
+     * @param path Path of the output file.
+     * @throws IOException If the file can not be created
+     */
+    public ResultWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes one line for each result of an information need.
+     * @param infoNeedId Identifier of the information need.
+     * @param filenames UTF-8 file names of the results, in ranking order.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public synchronized void write(String infoNeedId, BytesRef[] filenames) throws IOException {
+        byte[] id = infoNeedId.getBytes(StandardCharsets.UTF_8);
+        for (BytesRef filename : filenames) {
+            put(id, 0, id.length);
+            put((byte) '\t');
+            put(filename.bytes, filename.offset, filename.length);
+            put((byte) '\n');
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+            if (length > buffer.capacity()) {
+                drain(ByteBuffer.wrap(bytes, offset, length));
+                return;
+            }
+        }
+        buffer.put(bytes, offset, length);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        drain(buffer);
+        buffer.clear();
+    }
+
+    private void drain(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
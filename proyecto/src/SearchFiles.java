@@ -1,14 +1,11 @@
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoublePoint;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -18,6 +15,13 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
 
 /**
  * @author Martín Gascón 764429
@@ -28,36 +32,88 @@ public class SearchFiles {
 
   private String infoNeedsPath;
   private String outputPath;
-  private SpanishNamesDetector nameDetector;
-  private SpanishLocationsDetector locationDetector;
+  private ResultWriter resultWriter;
+  private int resultDepth;
+  private Sort resultSort;
+  private QueryResultCache resultCache;
+  private int rerankDepth;
+  private boolean combineFields;
+  private Evaluation.Run evaluationRun;
+  private EntityDetector entityDetector;
+  private final DateDetector dateDetector = new DateDetector();
+  private AnalyzedQueryBuilder queryBuilder;
+  private static final ThreadLocal<QueryIntent> INTENTS = ThreadLocal.withInitial(QueryIntent::new);
 
-  private final float DESCRIPTION_INFONEED_WEIGHT = 5;
-  private final float TITLE_INFONEED_WEIGHT =  4;
-  private final float SUBJECT_INFONEED_WEIGHT = 3;
-  private final float TYPE_WEIGHT = 10;
-  private final float LOCATION_WEIGHT = 5;
-  private final float NAME_CREATOR_WEIGHT = 10;
-  private final float NAME_CONTRIBUTOR_WEIGHT = 10;
-  private final float DESCRIPTION_NAME_WEIGHT = 10;
-  private final float BEGIN_DATE_WEIGHT = 10;
-  private final float END_DATE_WEIGHT = 10;
+  private SearchWeights weights = SearchWeights.defaults();
 
 
+  /**
+   * Creates a search engine without running any search, to answer the needs of a long-running process such as
+   * SearchServer. The detectors and the analyzer are loaded once here.
+   * @param resultDepth Default number of results of each need, or 0 for all of them.
+   * @param resultSort  Order of the results, or null to sort them by score.
+   * @throws IOException If the analyzer can not be loaded
+   */
+  SearchFiles(int resultDepth, Sort resultSort) throws IOException {
+    this.resultDepth = resultDepth;
+    this.resultSort = resultSort;
+    entityDetector = new EntityDetector();
+    queryBuilder = new AnalyzedQueryBuilder(new CustomAnalyzer());
+  }
+
+  /**
+   * @param weights Boosts of the query clauses of the next searches.
+   */
+  void setWeights(SearchWeights weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * @param combineFields Whether the next searches score each term of a need by one clause for all its fields.
+   */
+  void setCombineFields(boolean combineFields) {
+    this.combineFields = combineFields;
+  }
+
+  /**
+   * Caches the results of the searched queries, so repeated needs are answered without searching.
+   * @param resultCache Cache shared by the searches, or null to search every need.
+   */
+  void setResultCache(QueryResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
   /**
    * This class implements a traditional information recover system searcher
    * @param args  command line params
    * @throws IOException
-   * @throws ParseException
    * @throws ParserConfigurationException
    * @throws SAXException
    */
-  public SearchFiles(String args[]) throws IOException, ParseException, ParserConfigurationException, SAXException {
+  public SearchFiles(String args[]) throws IOException, ParserConfigurationException, SAXException {
 
-    nameDetector = new SpanishNamesDetector();
-    locationDetector = new SpanishLocationsDetector();
+    entityDetector = new EntityDetector();
 
     String usage =
-            "Usage:\t-index INDEX_DIR_PATH -infoNeeds INFO_NEEDS_FILE_PATH -output OUTPUT_FILE_PATH\n\n";
+            "Usage:\t-index INDEX_DIR_PATH -infoNeeds INFO_NEEDS_FILE_PATH -output OUTPUT_FILE_PATH [-threads N] [-k DEPTH] [-sortByYear] [-cache N] [-qrels QRELS_FILE_PATH [-cutoff K]] [-weights WEIGHTS_FILE_PATH] [-metrics METRICS_FILE_PATH] [-stemCache N] [-rerank N] [-combineFields]\n\n"
+            + "With -threads N the information needs are searched concurrently by N threads and every\n"
+            + "search is split by index segments over another N threads. Results keep the file order.\n"
+            + "With -k DEPTH only the DEPTH best results of each need are written, otherwise all of them.\n"
+            + "With -sortByYear the results are sorted by year, newest first, and then by score.\n"
+            + "With -cache N the results of up to N distinct queries are cached for repeated needs.\n"
+            + "With -qrels the results are also scored against the relevance judgments, as Evaluation does.\n"
+            + "The precision and nDCG at k are measured at the -cutoff K given, or else at the -k DEPTH\n"
+            + "of the results, or else at the 10 best results.\n"
+            + "With -weights the boosts of the query clauses are read from a properties file such as the\n"
+            + "one written by BoostTuner.\n"
+            + "With -metrics the latency of each search stage is written at the end, as JSON if the file\n"
+            + "name ends in .json and in the Prometheus text format otherwise.\n"
+            + "With -stemCache N the analyzer remembers the stems of up to N terms.\n"
+            + "With -rerank N each need is searched in two phases: the N best documents of its text under\n"
+            + "its date filter are found first, and then the boosts of its names, locations and work types\n"
+            + "are added to them. It can not be combined with -sortByYear.\n"
+            + "With -combineFields each distinct term of a need is scored by a single clause for all the\n"
+            + "fields it is searched in, with the same ranking and fewer clauses.\n\n";
 
       if (args.length > 0 && ("-h".equals(args[0]) || "-help".equals(args[0]))) {
       System.out.println(usage);
@@ -67,7 +123,11 @@ public class SearchFiles {
     String indexPath = "index";
     infoNeedsPath = "index";
     outputPath = "index";
-
+    int threads = 1;
+    String metricsPath = null;
+    String qrelsPath = null;
+    int cutoff = 0;
+    int stemCacheSize = 0;
 
     for(int i = 0;i < args.length;i++) {
       if ("-index".equals(args[i])) {
@@ -79,143 +139,516 @@ public class SearchFiles {
       } else if ("-output".equals(args[i])) {
         outputPath = args[i+1];
         i++;
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-k".equals(args[i])) {
+        resultDepth = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-sortByYear".equals(args[i])) {
+        resultSort = new Sort(new SortField(DublinCoreParser.YEAR_FIELD, SortField.Type.INT, true), SortField.FIELD_SCORE);
+      } else if ("-qrels".equals(args[i])) {
+        qrelsPath = args[i+1];
+        i++;
+      } else if ("-cutoff".equals(args[i])) {
+        cutoff = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-rerank".equals(args[i])) {
+        rerankDepth = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-combineFields".equals(args[i])) {
+        combineFields = true;
+      } else if ("-stemCache".equals(args[i])) {
+        stemCacheSize = Integer.parseInt(args[i+1]);
+        i++;
+      } else if ("-metrics".equals(args[i])) {
+        metricsPath = args[i+1];
+        Metrics.enable();
+        i++;
+      } else if ("-weights".equals(args[i])) {
+        weights = SearchWeights.load(Paths.get(args[i+1]));
+        i++;
+      } else if ("-cache".equals(args[i])) {
+        resultCache = new QueryResultCache(Integer.parseInt(args[i+1]));
+        i++;
       }
     }
+    if (rerankDepth > 0 && resultSort != null) {
+      // the rescorer sorts the candidates by score
+      System.err.println("-rerank can not be combined with -sortByYear");
+      System.exit(1);
+    }
+    if (qrelsPath != null) {
+      // the -k depth may be given after -qrels
+      if (cutoff <= 0) {
+        cutoff = resultDepth > 0 ? resultDepth : Evaluation.DEFAULT_CUTOFF;
+      }
+      evaluationRun = Evaluation.load(Paths.get(qrelsPath), cutoff).newRun();
+    }
 
-    File f= new File(outputPath);
-    f.delete();
-
-    IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
-    IndexSearcher searcher = new IndexSearcher(reader);
-    Analyzer analyzer = new CustomAnalyzer();
+    IndexReader reader = Shards.open(Paths.get(indexPath));
+    // Segment searches and whole needs run on different pools: a need waiting for its
+    // segment tasks must never hold the thread one of those tasks needs
+    int shards = Shards.count(Paths.get(indexPath));
+    ExecutorService segmentPool = threads > 1 || shards > 1
+            ? Executors.newFixedThreadPool(Math.max(threads, shards)) : null;
+    ExecutorService needPool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    IndexSearcher searcher;
+    if (shards > 0) {
+      // the shards are searched concurrently, each one over its own segments
+      searcher = new ShardedSearcher((MultiReader) reader, segmentPool);
+    } else {
+      searcher = segmentPool == null ? new IndexSearcher(reader) : new IndexSearcher(reader, segmentPool);
+    }
+    CustomAnalyzer analyzer = new CustomAnalyzer(stemCacheSize);
+    queryBuilder = new AnalyzedQueryBuilder(analyzer);
 
     FileInputStream in = new FileInputStream(infoNeedsPath);
     org.w3c.dom.Document dc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
     NodeList nl = dc.getElementsByTagName("informationNeed");
-    for (int i = 0; i < nl.getLength(); i++) {
-      Node text = ((Element)nl.item(i)).getElementsByTagName("text").item(0);
-      String infoNeedId = ((Element)nl.item(i)).getElementsByTagName("identifier").item(0).getTextContent();
+    resultWriter = new ResultWriter(Paths.get(outputPath));
+    try {
+      searchNeeds(searcher, nl, needPool, threads);
+    } finally {
+      if (needPool != null) {
+        needPool.shutdown();
+      }
+      if (segmentPool != null) {
+        segmentPool.shutdown();
+      }
+      resultWriter.close();
+      reader.close();
+    }
+    if (resultCache != null) {
+      System.out.println(resultCache);
+    }
+    if (evaluationRun != null) {
+      System.out.println("CUTOFF\t" + cutoff);
+      evaluationRun.print(System.out);
+    }
+    if (analyzer.getStemCache() != null) {
+      System.out.println(analyzer.getStemCache());
+    }
+    if (metricsPath != null) {
+      Metrics.write(Paths.get(metricsPath));
+    }
 
-      BooleanQuery query = prepareQuery(text.getTextContent(), analyzer);
-      showResults(searcher,query);
-      writeResults(searcher, query, infoNeedId);
+  }
+
+  /**
+   * Searches every information need and outputs the results in the order of the needs file. When a pool is
+   * given, up to a few needs per thread are searched ahead of the one being written.
+   * @param searcher  Object to search with in the indexed files.
+   * @param nl  The informationNeed elements of the needs file.
+   * @param pool  Pool to search the needs concurrently, or null to search them one after another.
+   * @param threads  Number of threads of the pool.
+   * @throws IOException
+   */
+  private void searchNeeds(IndexSearcher searcher, NodeList nl, ExecutorService pool, int threads)
+          throws IOException {
+    Deque<Future<NeedResults>> pending = new ArrayDeque<>();
+    Deque<String> pendingIds = new ArrayDeque<>();
+    int window = pool == null ? 1 : threads * 4;
+    for (int i = 0; i < nl.getLength() || !pending.isEmpty(); i++) {
+      if (i < nl.getLength()) {
+        Node text = ((Element)nl.item(i)).getElementsByTagName("text").item(0);
+        String infoNeedId = ((Element)nl.item(i)).getElementsByTagName("identifier").item(0).getTextContent();
+        String sentence = text.getTextContent();
+
+        Callable<NeedResults> search = () -> searchNeed(searcher, sentence, resultDepth);
+        pending.add(pool == null ? completed(search) : pool.submit(search));
+        pendingIds.add(infoNeedId);
+        if (pending.size() < window && i + 1 < nl.getLength()) {
+          continue;
+        }
+      }
+
+      NeedResults results = await(pending.poll());
+      long start = Metrics.start();
+      showResults(results.topDocs, results.filenames);
+      String infoNeedId = pendingIds.poll();
+      writeResults(results.filenames, infoNeedId);
+      Metrics.record(Metrics.Stage.SEARCH_OUTPUT, start);
+      if (evaluationRun != null) {
+        evaluationRun.add(infoNeedId, results.filenames);
+      }
+    }
+  }
+
+  /**
+   * Searches an information need and resolves the file names of its results.
+   * @param searcher    Object to search with in the indexed files.
+   * @param sentence    Text of the information need.
+   * @param depth       Number of results, or 0 for all of them.
+   * @return The results of the need.
+   * @throws IOException
+   */
+  NeedResults searchNeed(IndexSearcher searcher, String sentence, int depth) throws IOException {
+    TopDocs results;
+    if (rerankDepth > 0) {
+      long start = Metrics.start();
+      NeedComponents need = analyzeNeed(sentence);
+      // the full query only keys the cached results
+      Query query = buildQuery(need, weights, combineFields);
+      Metrics.record(Metrics.Stage.SEARCH_QUERY, start);
+      results = search(searcher, query, depth, () -> searchTwoPhase(searcher, need, depth));
+    } else {
+      Query query = prepareQuery(sentence);
+      results = search(searcher, query, depth, () -> execute(searcher, query, depth));
+    }
+    long start = Metrics.start();
+    BytesRef[] filenames = FilenameResolver.resolve(searcher.getIndexReader(), results.scoreDocs);
+    Metrics.record(Metrics.Stage.SEARCH_FETCH, start);
+    return new NeedResults(results, filenames);
+  }
+
+  /**
+   * Searches the best results of the query, through the result cache if there is one.
+   * @param searcher    Object to search with in the indexed files.
+   * @param query       Query to search.
+   * @param depth       Number of results, or 0 for all of them.
+   * @return The top results of the query.
+   * @throws IOException
+   */
+  private TopDocs search(IndexSearcher searcher, Query query, int depth, QueryResultCache.Search search)
+          throws IOException {
+    if (resultCache != null) {
+      return resultCache.search(searcher.getIndexReader(), query, depth, resultSort, search);
+    }
+    return search.search();
+  }
+
+  /**
+   * Searches a need in two phases. The first stage collects the best candidates of the text clauses under the
+   * date filter; as it stops counting hits at the number of candidates, it skips the blocks of documents which
+   * can not reach them. The second stage adds the boosts of the names, work types and locations to the
+   * candidates which match them, so a candidate gets the score of the full query, and sorts them again. A
+   * document which only matches the boosts is not found.
+   * @param searcher    Object to search with in the indexed files.
+   * @param need        Components of the query of the need.
+   * @param depth       Number of results, or 0 for all the candidates.
+   * @return The top results of the need.
+   * @throws IOException
+   */
+  private TopDocs searchTwoPhase(IndexSearcher searcher, NeedComponents need, int depth) throws IOException {
+    long start = Metrics.start();
+    TopDocs candidates = searcher.search(buildFirstStageQuery(need, weights, combineFields),
+            TopScoreDocCollector.createSharedManager(rerankDepth, null, rerankDepth));
+    int numHits = depth > 0 ? Math.min(depth, rerankDepth) : rerankDepth;
+    BooleanQuery boosts = buildBoostQuery(need, weights, combineFields);
+    TopDocs results;
+    if (boosts == null) {
+      ScoreDoc[] hits = candidates.scoreDocs;
+      results = new TopDocs(candidates.totalHits, Arrays.copyOf(hits, Math.min(numHits, hits.length)));
+    } else {
+      results = QueryRescorer.rescore(searcher, candidates, boosts, 1, numHits);
+    }
+    Metrics.record(Metrics.Stage.SEARCH_SEARCH, start);
+    return results;
+  }
+
+  /**
+   * Runs the search of a query.
+   */
+  private TopDocs execute(IndexSearcher searcher, Query query, int depth) throws IOException {
+    long start = Metrics.start();
+    TopDocs results;
+    if (depth == 0) {
+      // all the hits are collected in a single run of the query
+      results = searcher.search(query, new AllHitsCollectorManager(resultSort));
+    } else if (resultSort != null) {
+      results = searcher.search(query, depth, resultSort, true);
+    } else {
+      results = searcher.search(query, depth);
+    }
+    Metrics.record(Metrics.Stage.SEARCH_SEARCH, start);
+    return results;
+  }
 
+  /**
+   * Runs a search in the calling thread.
+   */
+  private static Future<NeedResults> completed(Callable<NeedResults> search) throws IOException {
+    try {
+      return CompletableFuture.completedFuture(search.call());
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
     }
-    reader.close();
+  }
 
+  /**
+   * Waits for a search and rethrows its failure.
+   */
+  private static NeedResults await(Future<NeedResults> search) throws IOException {
+    try {
+      return search.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
   }
 
   /**
    * Prepare a boolean query with different weights for the different fields.
-   * @param infoNeedPath  Path of the information needs file.
-   * @param analyzer  Analizer to analize the query text content.
+   * @param infoNeedPath  Text of the information need.
+   * @return  A boolean query with queries of the different fields added.
+   * @throws IOException
+   */
+  BooleanQuery prepareQuery(String infoNeedPath) throws IOException {
+    long start = Metrics.start();
+    BooleanQuery query = buildQuery(analyzeNeed(infoNeedPath), weights, combineFields);
+    Metrics.record(Metrics.Stage.SEARCH_QUERY, start);
+    return query;
+  }
+
+  /**
+   * Analyzes an information need and detects its entities and intents. The result does not depend on the
+   * weights, so it can be reused to build the query with different weights.
+   * @param infoNeedPath  Text of the information need.
+   * @return  The components of the query of the need.
+   * @throws IOException
+   */
+  NeedComponents analyzeNeed(String infoNeedPath) throws IOException {
+    long start = Metrics.start();
+    List<EntityDetector.Entity> entities = entityDetector.scan(infoNeedPath);
+    QueryIntent intent = QueryIntent.recognize(infoNeedPath, INTENTS.get());
+    Metrics.record(Metrics.Stage.SEARCH_DETECT, start);
+    List<String[]> names = new ArrayList<>();
+    List<String[]> locations = new ArrayList<>();
+    for (EntityDetector.Entity entity : entities) {
+      if (entity.isCapitalized() && entity.isName()) {
+        names.add(queryBuilder.analyzeCached(entity.getText()));
+      }
+    }
+    for (EntityDetector.Entity entity : entities) {
+      if (entity.isCapitalized() && entity.isLocation()) {
+        locations.add(queryBuilder.analyzeCached(entity.getText()));
+      }
+    }
+    // the detectors share the intents recognized in the single scan of the need
+    return new NeedComponents(queryBuilder.analyze(infoNeedPath), names, locations, dateDetector.getRange(intent),
+            TypeDetector.detectWorkType(intent));
+  }
+
+  /**
+   * Builds the boolean query of a need with different weights for the different fields.
+   * @param need     Components of the query of the need.
+   * @param weights  Boosts of the clauses.
    * @return  A boolean query with queries of the different fields added.
-   * @throws ParseException
    */
-  private BooleanQuery prepareQuery(String infoNeedPath, Analyzer analyzer) throws ParseException {
-    BoostQuery qDescription = new BoostQuery(new QueryParser("description", analyzer).parse(infoNeedPath),DESCRIPTION_INFONEED_WEIGHT);
-    BoostQuery qTitle = new BoostQuery(new QueryParser("title", analyzer).parse(infoNeedPath), TITLE_INFONEED_WEIGHT);
-    BoostQuery qSubject = new BoostQuery(new QueryParser("subject", analyzer).parse(infoNeedPath), SUBJECT_INFONEED_WEIGHT);
+  static BooleanQuery buildQuery(NeedComponents need, SearchWeights weights) {
+    return buildQuery(need, weights, false);
+  }
 
+  /**
+   * Builds the boolean query of a need with different weights for the different fields.
+   * @param need           Components of the query of the need.
+   * @param weights        Boosts of the clauses.
+   * @param combineFields  Whether each distinct term is scored by one clause for all its fields, see
+   *                       MultiFieldTerms, instead of a clause for each field and entity.
+   * @return  A boolean query with queries of the different fields added.
+   */
+  static BooleanQuery buildQuery(NeedComponents need, SearchWeights weights, boolean combineFields) {
     BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    if (combineFields) {
+      MultiFieldTerms terms = new MultiFieldTerms();
+      combineText(need, weights, terms);
+      combineBoosts(need, weights, terms);
+      terms.addTo(builder);
+    } else {
+      queryText(need, weights, builder);
+      queryNames(need, weights, builder);
+      queryType(need, weights, builder);
+      queryLocations(need, weights, builder);
+    }
+    queryDates(need, builder);
+
+    return builder.build();
+  }
+
+  /**
+   * Builds the query of the first stage of a two-phase search: the text clauses and the date filter, which
+   * decide which documents match, without the boosts of the entities and the work types.
+   * @param need     Components of the query of the need.
+   * @param weights  Boosts of the clauses.
+   * @param combineFields  Whether each distinct term is scored by one clause for all its fields.
+   * @return  A boolean query with the text clauses and the date filter.
+   */
+  static BooleanQuery buildFirstStageQuery(NeedComponents need, SearchWeights weights, boolean combineFields) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    if (combineFields) {
+      MultiFieldTerms terms = new MultiFieldTerms();
+      combineText(need, weights, terms);
+      terms.addTo(builder);
+    } else {
+      queryText(need, weights, builder);
+    }
+    queryDates(need, builder);
+    return builder.build();
+  }
+
+  /**
+   * Builds the boosts the second stage of a two-phase search adds to the score of the candidates. A candidate
+   * gets the same score as with the full query.
+   * @param need     Components of the query of the need.
+   * @param weights  Boosts of the clauses.
+   * @param combineFields  Whether each distinct term is scored by one clause for all its fields.
+   * @return  A boolean query with the names, work types and locations clauses, or null if the need has none.
+   */
+  static BooleanQuery buildBoostQuery(NeedComponents need, SearchWeights weights, boolean combineFields) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    if (combineFields) {
+      MultiFieldTerms terms = new MultiFieldTerms();
+      combineBoosts(need, weights, terms);
+      terms.addTo(builder);
+    } else {
+      queryNames(need, weights, builder);
+      queryType(need, weights, builder);
+      queryLocations(need, weights, builder);
+    }
+    BooleanQuery query = builder.build();
+    return query.clauses().isEmpty() ? null : query;
+  }
+
+  /**
+   * Add queries from the subject, description and title fields for the text of the information need.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
+   * @param builder Builder of the main boolean query.
+   */
+  private static void queryText(NeedComponents need, SearchWeights weights, BooleanQuery.Builder builder) {
+    BoostQuery qDescription = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("description", need.terms),
+            weights.get(SearchWeights.Weight.DESCRIPTION_INFONEED));
+    BoostQuery qTitle = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("title", need.terms),
+            weights.get(SearchWeights.Weight.TITLE_INFONEED));
+    BoostQuery qSubject = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("subject", need.terms),
+            weights.get(SearchWeights.Weight.SUBJECT_INFONEED));
+
     builder.add(qSubject,BooleanClause.Occur.SHOULD);
     builder.add(qDescription,BooleanClause.Occur.SHOULD);
     builder.add(qTitle,BooleanClause.Occur.SHOULD);
+  }
 
-    queryNames(infoNeedPath, analyzer, builder);
-    queryType(infoNeedPath, builder);
-    queryLocations(infoNeedPath,  analyzer, builder);
-    queryDates(infoNeedPath, builder);
-
+  /**
+   * Add the terms of the information need to the subject, description and title fields, as queryText does.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
+   * @param terms   Terms of the combined query.
+   */
+  private static void combineText(NeedComponents need, SearchWeights weights, MultiFieldTerms terms) {
+    terms.add("subject", need.terms, weights.get(SearchWeights.Weight.SUBJECT_INFONEED));
+    terms.add("description", need.terms, weights.get(SearchWeights.Weight.DESCRIPTION_INFONEED));
+    terms.add("title", need.terms, weights.get(SearchWeights.Weight.TITLE_INFONEED));
+  }
 
-    return builder.build();
+  /**
+   * Add the names, work types and locations of the information need, as queryNames, queryType and
+   * queryLocations do. The tokens of an entity repeated by another entity or by the text share their clause.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
+   * @param terms   Terms of the combined query.
+   */
+  private static void combineBoosts(NeedComponents need, SearchWeights weights, MultiFieldTerms terms) {
+    for (String[] name : need.names) {
+      terms.add("creator", name, weights.get(SearchWeights.Weight.NAME_CREATOR));
+      terms.add("contributor", name, weights.get(SearchWeights.Weight.NAME_CONTRIBUTOR));
+      terms.add("description", name, weights.get(SearchWeights.Weight.DESCRIPTION_NAME));
+    }
+    for (TypeDetector.AcademicWorkType type : need.workTypes) {
+      terms.add("type", new String[] {type.getValue()}, weights.get(SearchWeights.Weight.TYPE));
+    }
+    for (String[] location : need.locations) {
+      terms.add("description", location, weights.get(SearchWeights.Weight.LOCATION));
+    }
   }
 
   /**
-   * Add queries from the date field if detects any date pattern in the information need.
-   * @param sentence  Sentence to query.
+   * Filter by the year field if detects any date pattern in the information need.
+   * @param need    Components of the query of the need.
    * @param builder Builder of the main boolean query.
    */
-  private void queryDates(String sentence, BooleanQuery.Builder builder) {
-    DateDetector dateDetector = new DateDetector();
-    DateDetector.Range range;
-    if((range = dateDetector.getRangePattern(sentence)) != null){
-      BoostQuery qBeginDate = new BoostQuery(DoublePoint.newRangeQuery("date", range.getEndYear(), Double.POSITIVE_INFINITY),BEGIN_DATE_WEIGHT);
-      BoostQuery qEndDate = new BoostQuery(DoublePoint.newRangeQuery("date", Double.NEGATIVE_INFINITY, range.getEndYear()),END_DATE_WEIGHT);
-      builder.add(qBeginDate,BooleanClause.Occur.SHOULD);
-      builder.add(qEndDate,BooleanClause.Occur.SHOULD);
+  private static void queryDates(NeedComponents need, BooleanQuery.Builder builder) {
+    if(need.dateRange){
+      // The range only filters, it does not score. The points are used when the range is selective
+      // and the doc values when other clauses already lead the iteration.
+      Query qYear = new IndexOrDocValuesQuery(
+              IntPoint.newRangeQuery(DublinCoreParser.YEAR_FIELD, need.beginYear, need.endYear),
+              NumericDocValuesField.newSlowRangeQuery(DublinCoreParser.YEAR_FIELD, need.beginYear, need.endYear));
+      builder.add(qYear, BooleanClause.Occur.FILTER);
+      // With a filter the other clauses become optional, but results must still match one of them
+      builder.setMinimumNumberShouldMatch(1);
     }
   }
 
 
   /**
    * Add queries from the type field if detects any type pattern in the information need.
-   * @param sentence  Sentence to query.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
    * @param builder Builder of the main boolean query.
    */
-  private void queryType(String sentence, BooleanQuery.Builder builder) {
-    for(TypeDetector.AcademicWorkType type: TypeDetector.detectWorkType(sentence)){
-      BoostQuery query = new BoostQuery(new TermQuery(new Term("type", type.getValue())), TYPE_WEIGHT);
+  private static void queryType(NeedComponents need, SearchWeights weights, BooleanQuery.Builder builder) {
+    for(TypeDetector.AcademicWorkType type: need.workTypes){
+      BoostQuery query = new BoostQuery(new TermQuery(new Term("type", type.getValue())),
+              weights.get(SearchWeights.Weight.TYPE));
       builder.add(query,BooleanClause.Occur.SHOULD);
     }
   }
 
   /**
-   * Add queries from the description field if detects any location pattern in the information need.
-   * @param sentence  Sentence to query.
+   * Add queries from the description field for the locations detected in the information need.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
    * @param builder Builder of the main boolean query.
    */
-  private void queryLocations(String sentence, Analyzer analyzer, BooleanQuery.Builder builder) throws ParseException {
-    String tokens[] = sentence.split(" ");
-    for (String s : tokens) {
-      s = Detector.normalize(s);
-      if (Character.isUpperCase(s.charAt(0)) && (locationDetector.detect(s))) {
-        BoostQuery qDescription = new BoostQuery(new QueryParser("description", analyzer).parse(s), LOCATION_WEIGHT);
-        builder.add(qDescription, BooleanClause.Occur.SHOULD);
-      }
+  private static void queryLocations(NeedComponents need, SearchWeights weights, BooleanQuery.Builder builder) {
+    for (String[] terms : need.locations) {
+      BoostQuery qDescription = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("description", terms),
+              weights.get(SearchWeights.Weight.LOCATION));
+      builder.add(qDescription, BooleanClause.Occur.SHOULD);
     }
   }
   /**
-   * Add queries from the description, creator and contributor fields if detects any name pattern in the information need.
-   * @param sentence  Sentence to query.
+   * Add queries from the description, creator and contributor fields for the names detected in the information need.
+   * @param need    Components of the query of the need.
+   * @param weights Boosts of the clauses.
    * @param builder Builder of the main boolean query.
    */
-  private void queryNames(String sentence,Analyzer analyzer, BooleanQuery.Builder builder) throws ParseException {
-    String tokens[] = sentence.split(" ");
-    for(String s : tokens) {
-      s = Detector.normalize(s);
-      if (Character.isUpperCase(s.charAt(0)) && (nameDetector.detect(s))) {
-        BoostQuery qContributor = new BoostQuery(new QueryParser("creator", analyzer).parse(s), NAME_CREATOR_WEIGHT);
-        BoostQuery qCreator = new BoostQuery(new QueryParser("contributor", analyzer).parse(s), NAME_CONTRIBUTOR_WEIGHT);
-        BoostQuery qDescription = new BoostQuery(new QueryParser("description", analyzer).parse(s), DESCRIPTION_NAME_WEIGHT);
-        builder.add(qContributor, BooleanClause.Occur.SHOULD);
-        builder.add(qCreator, BooleanClause.Occur.SHOULD);
-        builder.add(qDescription, BooleanClause.Occur.SHOULD);
-      }
+  private static void queryNames(NeedComponents need, SearchWeights weights, BooleanQuery.Builder builder) {
+    for (String[] terms : need.names) {
+      BoostQuery qContributor = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("creator", terms),
+              weights.get(SearchWeights.Weight.NAME_CREATOR));
+      BoostQuery qCreator = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("contributor", terms),
+              weights.get(SearchWeights.Weight.NAME_CONTRIBUTOR));
+      BoostQuery qDescription = new BoostQuery(AnalyzedQueryBuilder.fieldQuery("description", terms),
+              weights.get(SearchWeights.Weight.DESCRIPTION_NAME));
+      builder.add(qContributor, BooleanClause.Occur.SHOULD);
+      builder.add(qCreator, BooleanClause.Occur.SHOULD);
+      builder.add(qDescription, BooleanClause.Occur.SHOULD);
     }
   }
 
   /**
    * Prints the results of the search.
-   * @param searcher    Object to search with in the indexed files.
-   * @param query       Query to search.
-   * @throws IOException
+   * @param results     Results of the search.
+   * @param filenames   File name of each hit.
    */
-  public void showResults(IndexSearcher searcher, Query query) throws IOException {
+  public void showResults(TopDocs results, BytesRef[] filenames) {
 
-    // Collect enough docs to show 5 pages
-    TopDocs results = searcher.search(query, Integer.MAX_VALUE);
-    ScoreDoc[] hits;
+    ScoreDoc[] hits = results.scoreDocs;
 
-    int numTotalHits = Math.toIntExact(results.totalHits.value);
-    hits = searcher.search(query, numTotalHits).scoreDocs;
-
-      for (int i = 0; i < 10; i++) {         // output raw format
-        Document doc = searcher.doc(hits[i].doc);
-        String path = doc.get("path");
-        String [] pathElements = path.split("/");
-        String filename = pathElements[pathElements.length -1];
-        System.out.println(filename + " score=" + hits[i].score);
+      for (int i = 0; i < Math.min(10, hits.length); i++) {         // output raw format
+        System.out.println(filenames[i].utf8ToString() + " score=" + hits[i].score);
         //System.out.println("score : " + searcher.explain(query, hits[i].doc));
       }
   }
@@ -223,28 +656,50 @@ public class SearchFiles {
   /**
    * Writes the results of the search into a file with the next format:
    * INFORMATION-IDENTIFIER\tRESULT-FILE-NAME.
-   * @param searcher    Object to search with in the indexed files.
-   * @param query       Query to search.
+   * @param filenames   File name of each hit, in ranking order.
+   * @param infoNeedId  Identifier of the information need.
    * @throws IOException
    */
-  private void writeResults(IndexSearcher searcher, BooleanQuery query, String infoNeedId) throws IOException {
-
-    BufferedWriter out = new BufferedWriter(new FileWriter(outputPath, true));
+  private void writeResults(BytesRef[] filenames, String infoNeedId) throws IOException {
+    resultWriter.write(infoNeedId, filenames);
+  }
 
-    TopDocs results = searcher.search(query,Integer.MAX_VALUE);
-    ScoreDoc[] hits;
+  /**
+   * Parts of the query of an information need which do not depend on the weights: the analyzed terms of the
+   * text, of the detected names and of the detected locations, and the recognized intents. It is immutable.
+   */
+  static final class NeedComponents {
+    final String[] terms;
+    final List<String[]> names;
+    final List<String[]> locations;
+    final Set<TypeDetector.AcademicWorkType> workTypes;
+    final boolean dateRange;
+    final int beginYear;
+    final int endYear;
+
+    NeedComponents(String[] terms, List<String[]> names, List<String[]> locations, DateDetector.Range range,
+                   Set<TypeDetector.AcademicWorkType> workTypes) {
+      this.terms = terms;
+      this.names = names;
+      this.locations = locations;
+      this.workTypes = workTypes;
+      this.dateRange = range != null;
+      this.beginYear = range != null ? range.getBeginYear() : 0;
+      this.endYear = range != null ? range.getEndYear() : 0;
+    }
+  }
 
-    int numTotalHits = Math.toIntExact(results.totalHits.value);
-    hits = results.scoreDocs;
+  /**
+   * Hits of an information need together with their file names.
+   */
+  static class NeedResults {
+    final TopDocs topDocs;
+    final BytesRef[] filenames;
 
-    for (int i = 0; i < numTotalHits; i++) {
-      Document doc = searcher.doc(hits[i].doc);
-      String path = doc.get("path");
-      String [] pathElements = path.split("/");
-      String filename = pathElements[pathElements.length -1];
-      out.write(infoNeedId + "\t" + filename + "\n");
+    NeedResults(TopDocs topDocs, BytesRef[] filenames) {
+      this.topDocs = topDocs;
+      this.filenames = filenames;
     }
-    out.close();
   }
 
 
@@ -0,0 +1,313 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Long-running search service over HTTP. The index, the analyzer and the entity dictionaries are loaded once and
+ * the searchers are shared through a SearcherManager, so a query only pays its own search. The searcher is
+ * refreshed on a timer to see the commits of IndexFiles, or, when the server owns the writer of the index, right
+ * after each update without waiting for a commit (near-real-time).
+ *
+ * GET /search?q=TEXT[&amp;k=N] answers the need TEXT with a line FILENAME\tSCORE for each of its N best results.
+ * POST /update indexes again the new and changed files of the documents directory, only with -docs.
+ * GET /stats shows the statistics of the result cache.
+ * GET /metrics shows the latency of the search stages in the Prometheus text format, only with -metrics.
+ */
+public class SearchServer {
+
+    private static final String USAGE = "Usage:\tSearchServer -index INDEX_DIR_PATH [-host HOST] [-port PORT]"
+            + " [-threads N] [-k DEPTH] [-refresh SECONDS] [-docs DOCS_PATH] [-cache N] [-metrics]\n\n"
+            + "The server only listens on the loopback interface unless -host gives another address,\n"
+            + "since its endpoints, /update included, are not authenticated.\n"
+            + "The searcher is refreshed every SECONDS to see the changes committed by IndexFiles.\n"
+            + "With -docs DOCS_PATH the server owns the index writer and POST /update indexes the\n"
+            + "changes of DOCS_PATH incrementally; they are searchable as soon as the update returns.\n"
+            + "With -cache N the results of up to N distinct queries are cached until the next refresh.\n"
+            + "With -metrics the search stages are measured and GET /metrics exports them.";
+
+    private final SearchFiles engine;
+    private final SearcherManager manager;
+    private final IndexWriter writer;
+    private final Directory dir;
+    private final File docDir;
+    private final int defaultDepth;
+    private final QueryResultCache cache;
+
+    /**
+     * @param dir          Directory of the index.
+     * @param docDir       Documents directory of the updates, or null to only read the index.
+     * @param defaultDepth Number of results of a query without k.
+     * @param cache        Cache of the query results, or null to search every query.
+     * @throws IOException If the index can not be opened
+     */
+    public SearchServer(Directory dir, File docDir, int defaultDepth, QueryResultCache cache) throws IOException {
+        this.engine = new SearchFiles(defaultDepth, null);
+        this.engine.setResultCache(cache);
+        this.cache = cache;
+        this.dir = dir;
+        this.docDir = docDir;
+        this.defaultDepth = defaultDepth;
+        if (docDir != null) {
+            IndexWriterConfig iwc = new IndexWriterConfig(new CustomAnalyzer());
+            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            writer = new IndexWriter(dir, iwc);
+            manager = new SearcherManager(writer, new SearcherFactory());
+        } else {
+            writer = null;
+            manager = new SearcherManager(dir, new SearcherFactory());
+        }
+    }
+
+    /**
+     * Searches a need with the current searcher.
+     * @param sentence Text of the information need.
+     * @param depth    Number of results.
+     * @return The results of the need.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public SearchFiles.NeedResults search(String sentence, int depth) throws IOException {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return engine.searchNeed(searcher, sentence, depth);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    /**
+     * Indexes the new and changed files of the documents directory and deletes the documents of the removed
+     * ones. The changes are searchable when it returns, and they are also committed.
+     * @return The counts of the update.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public synchronized String update() throws IOException {
+        if (writer == null) {
+            throw new IllegalStateException("The server was started without -docs");
+        }
+        IndexState state = IndexState.load(dir);
+        if (state.hasBulkRecords()) {
+            throw new IllegalStateException("The index holds records of bulk containers, which can not be updated");
+        }
+        IndexFiles.indexDocs(writer, docDir, state);
+        state.deleteMissing(writer, docDir);
+        manager.maybeRefreshBlocking();
+        writer.commit();
+        state.print();
+        return state.toString();
+    }
+
+    /**
+     * Refreshes the searcher if the index changed.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public void refresh() throws IOException {
+        manager.maybeRefresh();
+    }
+
+    /**
+     * Releases the searchers and closes the writer, if any, committing its changes.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public void close() throws IOException {
+        manager.close();
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+        String sentence = params.get("q");
+        if (sentence == null || sentence.trim().isEmpty()) {
+            respond(exchange, 400, "Missing parameter q\n");
+            return;
+        }
+        int depth = params.containsKey("k") ? Integer.parseInt(params.get("k")) : defaultDepth;
+        SearchFiles.NeedResults results = search(sentence, depth);
+        StringBuilder body = new StringBuilder();
+        ScoreDoc[] hits = results.topDocs.scoreDocs;
+        for (int i = 0; i < hits.length; i++) {
+            body.append(results.filenames[i].utf8ToString()).append('\t').append(hits[i].score).append('\n');
+        }
+        exchange.getResponseHeaders().add("X-Total-Hits", String.valueOf(results.topDocs.totalHits.value));
+        respond(exchange, 200, body.toString());
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, (cache == null ? "cache: disabled" : cache.toString()) + "\n");
+    }
+
+    private static void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!Metrics.isEnabled()) {
+            respond(exchange, 409, "The server was started without -metrics\n");
+            return;
+        }
+        StringWriter body = new StringWriter();
+        Metrics.writePrometheus(body);
+        respond(exchange, 200, body.toString());
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST\n");
+        } else if (writer == null) {
+            respond(exchange, 409, "The server was started without -docs\n");
+        } else {
+            respond(exchange, 200, update() + "\n");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Decodes the parameters of a query string.
+     */
+    private static Map<String, String> params(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String indexPath = null;
+        String docsPath = null;
+        InetAddress host = InetAddress.getLoopbackAddress();
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int depth = 10;
+        int refreshSeconds = 5;
+        QueryResultCache cache = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-index".equals(args[i])) {
+                indexPath = args[++i];
+            } else if ("-docs".equals(args[i])) {
+                docsPath = args[++i];
+            } else if ("-host".equals(args[i])) {
+                host = InetAddress.getByName(args[++i]);
+            } else if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-k".equals(args[i])) {
+                depth = Integer.parseInt(args[++i]);
+            } else if ("-refresh".equals(args[i])) {
+                refreshSeconds = Integer.parseInt(args[++i]);
+            } else if ("-cache".equals(args[i])) {
+                cache = new QueryResultCache(Integer.parseInt(args[++i]));
+            } else if ("-metrics".equals(args[i])) {
+                Metrics.enable();
+            }
+        }
+        if (indexPath == null) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        if (Shards.count(Paths.get(indexPath)) > 0) {
+            // the near-real-time updates need a single writer
+            System.err.println("Sharded indexes are searched with SearchFiles, not served");
+            System.exit(1);
+        }
+        SearchServer server = new SearchServer(FSDirectory.open(Paths.get(indexPath)),
+                docsPath == null ? null : new File(docsPath), depth, cache);
+        HttpServer http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        http.createContext("/search", exchange -> handle(exchange, server::handleSearch));
+        http.createContext("/update", exchange -> handle(exchange, server::handleUpdate));
+        http.createContext("/stats", exchange -> handle(exchange, server::handleStats));
+        http.createContext("/metrics", exchange -> handle(exchange, SearchServer::handleMetrics));
+        ExecutorService requestPool = Executors.newFixedThreadPool(threads);
+        http.setExecutor(requestPool);
+
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                server.refresh();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            http.stop(0);
+            refresher.shutdown();
+            requestPool.shutdown();
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        http.start();
+        System.out.println("Searching " + indexPath + " on " + http.getAddress());
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Runs a handler and answers its failures with an error status, so a bad request never kills the thread.
+     */
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try {
+            handler.handle(exchange);
+        } catch (NumberFormatException e) {
+            respondQuietly(exchange, 400, "Invalid number: " + e.getMessage() + "\n");
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            respondQuietly(exchange, 500, e + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respondQuietly(HttpExchange exchange, int status, String body) {
+        try {
+            respond(exchange, status, body);
+        } catch (IOException ignored) {
+            // the client is gone
+        }
+    }
+}
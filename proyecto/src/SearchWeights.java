@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Boosts of the clauses of the queries built by SearchFiles. They can be read from a properties file, with the
+ * lower case name of each weight as key, so they are tuned without recompiling. Instances are immutable.
+ */
+public final class SearchWeights {
+
+    /**
+     * Boosted clauses, with their default weight.
+     */
+    public enum Weight {
+        DESCRIPTION_INFONEED(5), TITLE_INFONEED(4), SUBJECT_INFONEED(3), TYPE(10), LOCATION(5), NAME_CREATOR(10),
+        NAME_CONTRIBUTOR(10), DESCRIPTION_NAME(10);
+
+        final float defaultValue;
+
+        Weight(float defaultValue) {
+            this.defaultValue = defaultValue;
+        }
+
+        /**
+         * @return The key of the weight in a properties file.
+         */
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * @param key Key of a weight in a properties file.
+         * @return The weight of the key.
+         * @throws IllegalArgumentException If no weight has the key
+         */
+        public static Weight ofKey(String key) {
+            return valueOf(key.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final SearchWeights DEFAULTS;
+
+    static {
+        float[] values = new float[Weight.values().length];
+        for (Weight weight : Weight.values()) {
+            values[weight.ordinal()] = weight.defaultValue;
+        }
+        DEFAULTS = new SearchWeights(values);
+    }
+
+    private final float[] values;
+
+    private SearchWeights(float[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return The weights SearchFiles has always used.
+     */
+    public static SearchWeights defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Reads the weights of a properties file. The weights missing in the file keep their default.
+     * @param path Path of the properties file.
+     * @return The weights.
+     * @throws IOException If the file can not be read
+     * @throws IllegalArgumentException If a key is not a weight or a value is not a number
+     */
+    public static SearchWeights load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        SearchWeights weights = DEFAULTS;
+        for (String key : properties.stringPropertyNames()) {
+            weights = weights.with(Weight.ofKey(key), Float.parseFloat(properties.getProperty(key).trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Writes the weights as a properties file readable by load.
+     * @param path Path of the properties file.
+     * @throws IOException If the file can not be written
+     */
+    public void store(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(toString());
+        }
+    }
+
+    public float get(Weight weight) {
+        return values[weight.ordinal()];
+    }
+
+    /**
+     * @return A copy of these weights with one of them changed.
+     */
+    public SearchWeights with(Weight weight, float value) {
+        float[] copy = values.clone();
+        copy[weight.ordinal()] = value;
+        return new SearchWeights(copy);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SearchWeights && Arrays.equals(values, ((SearchWeights) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    /**
+     * @return The weights in the properties format, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Weight weight : Weight.values()) {
+            text.append(weight.key()).append('=').append(values[weight.ordinal()]).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,51 @@
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Searcher of a sharded index opened by Shards. Every search runs on all the shards at the same time: each shard is
+ * a slice of the searcher, searched by a task of the pool over its own segments, and the top hits of the slices are
+ * merged by the collector manager. The weight of a query is created once over the MultiReader, so the term and
+ * collection statistics of the whole index are looked up once per query and every shard scores with them: the
+ * scores, and the ranking, are the same as in a single index with the same documents. The doc ids of the hits are
+ * those of the MultiReader, so they can be resolved as the hits of a single index.
+ */
+public class ShardedSearcher extends IndexSearcher {
+
+    /**
+     * @param reader Reader of all the shards, with a sub reader per shard.
+     * @param pool   Pool where the shards are searched. Its tasks never wait for other tasks.
+     */
+    public ShardedSearcher(MultiReader reader, ExecutorService pool) {
+        super(reader, pool);
+    }
+
+    /**
+     * Groups the segments by shard. It is called by the constructor of IndexSearcher, so it only uses its argument.
+     * @param leaves Segments of all the shards, in the order of the MultiReader.
+     * @return A slice for each shard.
+     */
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        // the parent of a segment is the context of the reader of its shard
+        Map<IndexReaderContext, List<LeafReaderContext>> shards = new LinkedHashMap<>();
+        for (LeafReaderContext leaf : leaves) {
+            shards.computeIfAbsent(leaf.parent, shard -> new ArrayList<>()).add(leaf);
+        }
+        LeafSlice[] slices = new LeafSlice[shards.size()];
+        int i = 0;
+        for (List<LeafReaderContext> shard : shards.values()) {
+            slices[i++] = new LeafSlice(shard.toArray(new LeafReaderContext[0]));
+        }
+        return slices;
+    }
+}
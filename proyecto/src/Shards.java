@@ -0,0 +1,111 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Layout of a sharded index: the shards are the indexes of the subdirectories shard-0 to shard-N-1 of the index
+ * directory, and every document goes to the shard given by the hash of its path, or of its id for the records of
+ * bulk containers. An index directory without them is a single index.
+ */
+public final class Shards {
+
+    public static final String SHARD_PREFIX = "shard-";
+
+    private Shards() {
+    }
+
+    /**
+     * @param path   Path of an indexed file, the value of its path field, or id of a bulk record.
+     * @param shards Number of shards.
+     * @return The shard of the document. String.hashCode is specified, so it does not change between runs.
+     */
+    public static int shardOf(String path, int shards) {
+        return Math.floorMod(path.hashCode(), shards);
+    }
+
+    /**
+     * @return The directory of a shard of the index.
+     */
+    public static Path shardPath(Path index, int shard) {
+        return index.resolve(SHARD_PREFIX + shard);
+    }
+
+    /**
+     * @param index Directory of the index.
+     * @return The number of shards of the index, or 0 if it is a single index.
+     */
+    public static int count(Path index) {
+        int shards = 0;
+        while (Files.isDirectory(shardPath(index, shards))) {
+            shards++;
+        }
+        return shards;
+    }
+
+    /**
+     * Opens the index for searching. A sharded index is opened as a MultiReader over the readers of its shards, so
+     * its statistics and doc ids are those of the whole collection.
+     * @param index Directory of the index.
+     * @return A reader of the single index or of all the shards.
+     * @throws IOException If there is a low-level I/O error
+     */
+    public static IndexReader open(Path index) throws IOException {
+        int shards = count(index);
+        if (shards == 0) {
+            return DirectoryReader.open(FSDirectory.open(index));
+        }
+        IndexReader[] readers = new IndexReader[shards];
+        try {
+            for (int i = 0; i < shards; i++) {
+                readers[i] = DirectoryReader.open(FSDirectory.open(shardPath(index, i)));
+            }
+            return new MultiReader(readers);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(readers);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the shards a new index of the given number of shards would not overwrite, so they are not searched
+     * together with it, and the files of a previous single index replaced by shards.
+     * @param index  Directory of the index.
+     * @param shards Number of shards of the new index, 1 for a single index.
+     * @throws IOException If a shard can not be removed
+     */
+    public static void removeStale(Path index, int shards) throws IOException {
+        for (int i = shards > 1 ? shards : 0; Files.isDirectory(shardPath(index, i)); i++) {
+            IOUtils.rm(shardPath(index, i));
+        }
+        if (shards > 1 && Files.isDirectory(index)) {
+            // the files of a previous single index in the index directory are not searched any more
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(index)) {
+                for (Path file : files) {
+                    if (Files.isRegularFile(file) && isIndexFile(file.getFileName().toString())) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether a file name is one of the names Lucene gives to the files of an index.
+     */
+    private static boolean isIndexFile(String name) {
+        return name.startsWith(IndexFileNames.SEGMENTS) || name.startsWith(IndexFileNames.PENDING_SEGMENTS)
+                || name.equals(IndexWriter.WRITE_LOCK_NAME)
+                || IndexFileNames.CODEC_FILE_PATTERN.matcher(name).matches();
+    }
+}
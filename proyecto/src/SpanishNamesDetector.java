@@ -1,5 +1,4 @@
-import java.io.*;
-import java.util.HashMap;
+import java.io.IOException;
 
 /**
  * @author Martín Gascón 764429
@@ -7,62 +6,26 @@ import java.util.HashMap;
  * This class offers different types of name detections.
  */
 public class SpanishNamesDetector extends Detector{
-    private final String NAMES_FILE_PATH = "spanish-names-master/names.txt";
-    private final String SURNAMES_FILE_PATH = "spanish-names-master/surnames.txt";
-    HashMap<String, Boolean> names;
-    HashMap<String, Boolean> surnames;
+    static final String NAMES_FILE_PATH = "spanish-names-master/names.txt";
+    static final String SURNAMES_FILE_PATH = "spanish-names-master/surnames.txt";
+    Gazetteer names;
+    Gazetteer surnames;
 
     public SpanishNamesDetector() {
        loadData();
     }
 
-    /**
-     * This method load the file which contains the surname data into a hashmap.
-     * @return Hashmap with the surname data loaded
-     * @throws IOException
-     */
-    private HashMap<String, Boolean> loadSurnames() throws IOException {
-        HashMap<String, Boolean> retval = new HashMap<>();
-
-        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(SURNAMES_FILE_PATH)));
-        String line;
-
-        while ((line = in.readLine()) != null){
-            retval.put(line,true);
-        }
-        in.close();
-
-        return retval;
-    }
-
-    /**
-     * This method load the file which contains the name data into a hashmap.
-     * @return Hashmap with the name data loaded
-     *
-     */
-    private HashMap<String, Boolean> loadNames() throws IOException {
-        HashMap<String, Boolean> retval = new HashMap<>();
-        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(NAMES_FILE_PATH)));
-        String line;
-
-        while ((line = in.readLine()) != null){
-            retval.put(line,true);
-        }
-        in.close();
-
-        return retval;
-    }
-
     @Override
     public boolean detect(String token) {
-        return names.get(normalize(token).toUpperCase()) != null || surnames.get(normalize(token).toUpperCase()) != null;
+        CharSequence key = key(token);
+        return names.contains(key) || surnames.contains(key);
     }
 
     @Override
     public boolean loadData() {
         try {
-            names = loadNames();
-            surnames = loadSurnames();
+            names = Gazetteer.open(NAMES_FILE_PATH);
+            surnames = Gazetteer.open(SURNAMES_FILE_PATH);
         } catch (IOException e) {
             e.printStackTrace();
             return false;
@@ -1,7 +1,7 @@
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * @author Martín Gascón 764429
@@ -26,41 +26,41 @@ public class TypeDetector{
     static String tfmNames[] = {"tfm", "trabajo de fin de master",
             "trabajos de fin de master", "taz-tfm"};
 
+    static final String TFG_PATTERN = alternatives(tfgNames);
+    static final String TFM_PATTERN = alternatives(tfmNames);
+    static final String WORKS_PATTERN = Pattern.quote("trabajos");
+    static final String THESIS_PATTERN = Pattern.quote("tesis");
+
     /**
      * Detect the type of a academic work
      * @param sentence Sentence to detect the type pattern.
      * @return return a set with the types of academic works
      */
     static Set<AcademicWorkType> detectWorkType(String sentence){
-        sentence = sentence.toLowerCase();
-        Set<AcademicWorkType> retval = new HashSet<>();
-        boolean tfg = false;
-        boolean tfm = false;
+        return detectWorkType(QueryIntent.recognize(sentence, new QueryIntent()));
+    }
 
-        for(String term : tfgNames){
-            if(sentence.contains(term)){
-                retval.add(AcademicWorkType.TFG);
-                tfg = true;
-                break;
-            }
-        }
+    /**
+     * Types of academic work of a sentence whose intents were already recognized, so it is not scanned again.
+     * @param intent Intents of the sentence.
+     * @return return a set with the types of academic works
+     */
+    static Set<AcademicWorkType> detectWorkType(QueryIntent intent){
+        return intent.getWorkTypes().isEmpty()
+                ? Collections.<AcademicWorkType>emptySet() : EnumSet.copyOf(intent.getWorkTypes());
+    }
 
-        for(String term : tfmNames){
-            if(sentence.contains(term)){
-                retval.add(AcademicWorkType.TFM);
-                tfm = true;
-                break;
+    /**
+     * Builds a pattern which matches any of the terms literally.
+     */
+    private static String alternatives(String[] terms) {
+        StringBuilder pattern = new StringBuilder();
+        for (String term : terms) {
+            if (pattern.length() > 0) {
+                pattern.append('|');
             }
+            pattern.append(Pattern.quote(term));
         }
-
-        if(sentence.contains("trabajos") && !tfm && !tfg) {
-            retval.add(AcademicWorkType.TFG);
-            retval.add(AcademicWorkType.TFM);
-        }
-
-        if(sentence.contains("tesis"))
-            retval.add(AcademicWorkType.TESIS);
-
-        return retval;
+        return pattern.toString();
     }
 }
@@ -0,0 +1,130 @@
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Metrics of Evaluation against values computed by hand, with repeated judgments and results.
+ */
+public class EvaluationTest {
+
+    private static final double DELTA = 0.0005;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Judgments of q1: d1 and d4 relevant, d2 twice as relevant, d3 not relevant; d1 is judged twice. q2 has a
+     * single relevant document and no results.
+     */
+    private Evaluation load(int cutoff) throws IOException {
+        Path qrels = folder.newFile("qrels.txt").toPath();
+        String lines = "q1 d1 1\nq1 d2 2\nq1 d3 0\nq1 d4 1\nq1 d1 1\n\nq2 d5 1\n";
+        Files.write(qrels, lines.getBytes(StandardCharsets.UTF_8));
+        return Evaluation.load(qrels, cutoff);
+    }
+
+    /**
+     * The ranking of q1 is d2, x, d1, d3, d9 once the repeated d1 and x are dropped: d2 relevant at rank 1 and
+     * d1 at rank 3, out of 3 relevant documents.
+     */
+    private static void addRanking(Evaluation.Run run) {
+        for (String doc : new String[]{"d2", "x", "d1", "d1", "x", "d3", "d9"}) {
+            run.add("q1", new BytesRef(doc));
+        }
+    }
+
+    @Test
+    public void computesTheMetricsOfANeed() throws IOException {
+        Evaluation.Run run = load(2).newRun();
+        addRanking(run);
+        Map<String, Map<String, Double>> report = report(run);
+
+        Map<String, Double> q1 = report.get("q1");
+        assertEquals(2.0 / 5, q1.get("precision"), DELTA);
+        assertEquals(2.0 / 3, q1.get("recall"), DELTA);
+        assertEquals(0.5, q1.get("F1"), DELTA);
+        assertEquals(1.0 / 2, q1.get("prec@2"), DELTA);
+        assertEquals((1.0 + 2.0 / 3) / 3, q1.get("average_precision"), DELTA);
+        // gains 2 at rank 1 and 1 at rank 3, against the ideal gains 2, 1, 1
+        double idealAt2 = 2 + 1 / log2(3);
+        assertEquals(2 / idealAt2, q1.get("ndcg@2"), DELTA);
+        assertEquals((2 + 1 / log2(4)) / (idealAt2 + 1 / log2(4)), q1.get("ndcg"), DELTA);
+        assertEquals(1.0, q1.get("0.300"), DELTA);
+        assertEquals(2.0 / 3, q1.get("0.400"), DELTA);
+        assertEquals(2.0 / 3, q1.get("0.600"), DELTA);
+        assertEquals(0.0, q1.get("0.700"), DELTA);
+
+        assertEquals(0.0, report.get("q2").get("average_precision"), DELTA);
+        assertEquals((1.0 + 2.0 / 3) / 3 / 2, report.get("TOTAL").get("MAP"), DELTA);
+        assertEquals((1.0 + 2.0 / 3) / 3 / 2, run.meanAveragePrecision(), 1e-9);
+    }
+
+    @Test
+    public void scoresAResultsFileAsTheAddedResults() throws IOException {
+        Evaluation evaluation = load(2);
+        Evaluation.Run added = evaluation.newRun();
+        addRanking(added);
+
+        // CRLF line breaks, a line of a need without judgments and no line break at the end
+        Path results = folder.newFile("results.txt").toPath();
+        String lines = "q1\td2\r\nq1\tx\r\nq3\td1\nq1\td1\nq1\td1\nq1\tx\n\nq1\td3\nq1\td9";
+        Files.write(results, lines.getBytes(StandardCharsets.UTF_8));
+        Evaluation.Run read = evaluation.evaluate(results);
+
+        assertEquals(print(added), print(read));
+    }
+
+    @Test
+    public void measuresPrecisionAtTheCutoff() throws IOException {
+        Evaluation.Run run = load(5).newRun();
+        addRanking(run);
+        Map<String, Double> q1 = report(run).get("q1");
+        assertEquals(2.0 / 5, q1.get("prec@5"), DELTA);
+        assertEquals((2 + 1 / log2(4)) / (2 + 1 / log2(3) + 1 / log2(4)), q1.get("ndcg@5"), DELTA);
+    }
+
+    private static String print(Evaluation.Run run) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        run.print(new PrintStream(bytes, true));
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The values printed for each need and for the total, by metric name or recall level.
+     */
+    private static Map<String, Map<String, Double>> report(Evaluation.Run run) {
+        Map<String, Map<String, Double>> report = new HashMap<>();
+        Map<String, Double> section = null;
+        for (String line : print(run).split("\n")) {
+            String[] fields = line.split("\t");
+            if (fields[0].equals("INFORMATION_NEED")) {
+                section = new HashMap<>();
+                report.put(fields[1], section);
+            } else if (fields[0].equals("TOTAL")) {
+                section = new HashMap<>();
+                report.put("TOTAL", section);
+            } else if (fields.length == 2) {
+                section.put(fields[0], Double.parseDouble(fields[1]));
+            }
+        }
+        return report;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
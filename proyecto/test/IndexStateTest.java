@@ -0,0 +1,165 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Incremental updates of IndexFiles: unchanged files are skipped, changed files are indexed again and the documents
+ * of the removed files are deleted, while the documents the walk does not cover are kept.
+ */
+public class IndexStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Directory dir;
+    private File docs;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new ByteBuffersDirectory();
+        docs = folder.newFolder("docs");
+    }
+
+    @Test
+    public void skipsUpdatesAndDeletesFiles() throws IOException {
+        File first = write(docs, "first.xml", "genomas", 1_000_000L);
+        File second = write(docs, "second.xml", "robótica", 1_000_000L);
+        File third = write(docs, "third.xml", "literatura", 1_000_000L);
+        assertEquals("3 indexed, 0 unchanged, 0 touched without changes, 0 deleted", update(docs));
+
+        assertEquals("0 indexed, 3 unchanged, 0 touched without changes, 0 deleted", update(docs));
+
+        write(docs, "first.xml", "filogenia", 2_000_000L);
+        assertTrue(second.setLastModified(2_000_000L));
+        assertTrue(third.delete());
+        assertEquals("1 indexed, 0 unchanged, 1 touched without changes, 1 deleted", update(docs));
+        assertEquals(2, numDocs());
+        assertEquals(0, hits("description", "genom"));
+        assertEquals(1, hits("description", "filogeni"));
+        assertEquals(0, hits("path", third.getPath()));
+
+        // the new time of the touched file is stored, so it is not hashed again
+        assertEquals("0 indexed, 2 unchanged, 0 touched without changes, 0 deleted", update(docs));
+        assertEquals(1, hits("path", first.getPath()));
+    }
+
+    @Test
+    public void deletesAChangedFileWhichCanNotBeParsed() throws IOException {
+        File file = write(docs, "file.xml", "bioinformática", 1_000_000L);
+        update(docs);
+        Files.write(file.toPath(), "<oai_dc:dc".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(2_000_000L));
+        update(docs);
+        assertEquals(0, numDocs());
+    }
+
+    @Test
+    public void keepsTheDocumentsOutsideTheWalkedDirectory() throws IOException {
+        File other = folder.newFolder("other");
+        write(docs, "file.xml", "bioinformática", 1_000_000L);
+        File outside = write(other, "outside.xml", "robótica", 1_000_000L);
+        update(docs);
+        update(other);
+
+        assertEquals("0 indexed, 1 unchanged, 0 touched without changes, 0 deleted", update(docs));
+        assertEquals(2, numDocs());
+        assertEquals(1, hits("path", outside.getPath()));
+    }
+
+    @Test
+    public void tracksOnlyTheDocumentsIndexedWithTheirState() throws IOException {
+        write(docs, "file.xml", "bioinformática", 1_000_000L);
+        update(docs);
+        // a bulk record, whose path is not a file of the walked directory
+        try (IndexWriter writer = writer()) {
+            Document record = new Document();
+            IndexFiles.addPathFields(record, new File(docs, "container.xml/record-1"));
+            record.add(new StringField(IndexFiles.ID_FIELD, "record-1", Field.Store.NO));
+            writer.addDocument(record);
+        }
+
+        assertTrue(IndexState.load(dir).hasBulkRecords());
+        assertEquals("0 indexed, 1 unchanged, 0 touched without changes, 0 deleted", update(docs));
+        assertEquals(1, hits(IndexFiles.ID_FIELD, "record-1"));
+    }
+
+    @Test
+    public void detectsNoBulkRecordsInAnIndexOfFiles() throws IOException {
+        write(docs, "file.xml", "bioinformática", 1_000_000L);
+        update(docs);
+        assertFalse(IndexState.load(dir).hasBulkRecords());
+    }
+
+    /**
+     * Updates the index with the files of a directory, as IndexFiles -incremental does.
+     * @return The counts of the update.
+     */
+    private String update(File root) throws IOException {
+        IndexState state = IndexState.load(dir);
+        try (IndexWriter writer = writer()) {
+            IndexFiles.indexDocs(writer, root, state);
+            state.deleteMissing(writer, root);
+        }
+        return state.toString();
+    }
+
+    private IndexWriter writer() throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(new CustomAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        return new IndexWriter(dir, iwc);
+    }
+
+    private int numDocs() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            return reader.numDocs();
+        }
+    }
+
+    private int hits(String field, String term) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            return new IndexSearcher(reader).count(new TermQuery(new Term(field, term)));
+        }
+    }
+
+    /**
+     * Writes a Dublin Core record with the given description.
+     */
+    static File write(File dir, String name, String description, long modified) throws IOException {
+        File file = new File(dir, name);
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n"
+                + "<dc:title>" + name + "</dc:title>\n"
+                + "<dc:description>" + description + "</dc:description>\n"
+                + "<dc:date>2010</dc:date>\n"
+                + "</oai_dc:dc>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        if (!file.setLastModified(modified)) {
+            throw new IOException("Can not set the time of " + file);
+        }
+        return file;
+    }
+}
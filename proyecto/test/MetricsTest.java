@@ -0,0 +1,50 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Bounds of the buckets of the latency histogram of Metrics: bucket i holds the times t with
+ * 2^(i-1) < t <= 2^i nanoseconds.
+ */
+public class MetricsTest {
+
+    @Test
+    public void recordsEachTimeInTheBucketOfItsUpperBound() {
+        long[] times = {-5, 0, 1, 2, 3, 4, 5, 1023, 1024, 1025, Long.MAX_VALUE};
+        int[] buckets = {0, 0, 0, 1, 2, 2, 3, 10, 10, 11, 63};
+        for (int i = 0; i < times.length; i++) {
+            Metrics.Histogram histogram = new Metrics.Histogram();
+            histogram.record(times[i]);
+            assertEquals("bucket of " + times[i], 1, histogram.buckets.get(buckets[i]));
+            assertEquals(1, histogram.count.sum());
+        }
+    }
+
+    @Test
+    public void boundsTheBucketsByPowersOfTwo() {
+        assertEquals(1, Metrics.Histogram.upperBound(0));
+        assertEquals(2, Metrics.Histogram.upperBound(1));
+        assertEquals(1024, Metrics.Histogram.upperBound(10));
+        assertEquals(1L << 62, Metrics.Histogram.upperBound(62));
+        // the last bucket holds every longer time
+        assertEquals(Long.MAX_VALUE, Metrics.Histogram.upperBound(63));
+    }
+
+    @Test
+    public void estimatesThePercentilesByTheBoundsOfTheirBuckets() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long nanos = 1; nanos <= 100; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(100, histogram.count.sum());
+        assertEquals(5050, histogram.sum.sum());
+        assertEquals(100, histogram.max.get());
+        // the 50th time is in the bucket (32, 64]
+        assertEquals(64, histogram.percentile(0.5));
+        // the 99th time is in the bucket (64, 128], whose bound is above the maximum
+        assertEquals(100, histogram.percentile(0.99));
+        assertEquals(1, histogram.percentile(0.01));
+    }
+}
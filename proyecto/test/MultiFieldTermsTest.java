@@ -0,0 +1,142 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * The query of -combineFields, with a clause per distinct term, finds the same documents with the same scores as
+ * the query with a clause per field and entity.
+ */
+public class MultiFieldTermsTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private AnalyzedQueryBuilder analyzer;
+    private DirectoryReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        analyzer = new AnalyzedQueryBuilder(new CustomAnalyzer());
+        Directory dir = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new CustomAnalyzer()))) {
+            writer.addDocument(doc("Energía solar en Zaragoza", "Paneles solares en Aragón", "energía",
+                    "Javier Martínez", "", "TAZ-TFG", 2012));
+            writer.addDocument(doc("Energía eólica", "Parques eólicos de Zaragoza dirigidos por Javier Martínez",
+                    "energía renovable", "Ana López", "Javier Martínez", "TAZ-TFM", 2015));
+            writer.addDocument(doc("Historia de Aragón", "La energía en la historia de Zaragoza", "historia",
+                    "Pedro Sanz", "", "TESIS", 2008));
+            writer.addDocument(doc("Robótica móvil", "Robots de exploración", "robótica", "Javier Martínez",
+                    "", "TAZ-TFG", 2019));
+            writer.addDocument(doc("Energía", "Energía, energía solar y energía eólica", "energía solar",
+                    "Ana López", "", "TAZ-TFM", 2013));
+        }
+        reader = DirectoryReader.open(dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void scoresAsTheQueryOfEachField() throws IOException {
+        // the name and the location repeat terms of the text and of each other
+        SearchFiles.NeedComponents need = need("Trabajos sobre energía solar de Javier Martínez en Zaragoza",
+                Collections.singletonList("Javier Martínez"), Arrays.asList("Zaragoza", "Aragón"), null,
+                EnumSet.of(TypeDetector.AcademicWorkType.TFG, TypeDetector.AcademicWorkType.TFM));
+        assertEquals(5, assertSameScores(need).scoreDocs.length);
+    }
+
+    @Test
+    public void scoresAsTheQueryOfEachFieldInADateRange() throws IOException {
+        SearchFiles.NeedComponents need = need("Energía en Zaragoza", Collections.emptyList(),
+                Collections.singletonList("Zaragoza"), new DateDetector().new Range(2010, 2015),
+                EnumSet.of(TypeDetector.AcademicWorkType.TESIS));
+        TopDocs hits = assertSameScores(need);
+        assertEquals(3, hits.scoreDocs.length);
+    }
+
+    @Test
+    public void addsAClausePerDistinctTerm() throws IOException {
+        SearchFiles.NeedComponents need = need("energía solar y energía eólica",
+                Collections.singletonList("Javier Martínez"), Collections.emptyList(), null,
+                EnumSet.noneOf(TypeDetector.AcademicWorkType.class));
+        Set<String> distinct = new HashSet<>(Arrays.asList(need.terms));
+        distinct.addAll(Arrays.asList(need.names.get(0)));
+        assertEquals(distinct.size(), SearchFiles.buildQuery(need, SearchWeights.defaults(), true).clauses().size());
+        // the text in three fields and the name in another three
+        assertEquals(6, SearchFiles.buildQuery(need, SearchWeights.defaults(), false).clauses().size());
+    }
+
+    private TopDocs assertSameScores(SearchFiles.NeedComponents need) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        int all = reader.maxDoc();
+        TopDocs expected = searcher.search(SearchFiles.buildQuery(need, SearchWeights.defaults(), false), all);
+        TopDocs actual = searcher.search(SearchFiles.buildQuery(need, SearchWeights.defaults(), true), all);
+        assertEquals(expected.totalHits, actual.totalHits);
+        Map<Integer, Float> scores = new HashMap<>();
+        for (ScoreDoc hit : expected.scoreDocs) {
+            scores.put(hit.doc, hit.score);
+        }
+        for (ScoreDoc hit : actual.scoreDocs) {
+            assertEquals(scores.get(hit.doc), hit.score, DELTA * hit.score);
+        }
+        return actual;
+    }
+
+    private SearchFiles.NeedComponents need(String text, List<String> names, List<String> locations,
+                                            DateDetector.Range range, EnumSet<TypeDetector.AcademicWorkType> types)
+            throws IOException {
+        return new SearchFiles.NeedComponents(analyzer.analyze(text), analyze(names), analyze(locations), range,
+                types);
+    }
+
+    private List<String[]> analyze(List<String> entities) throws IOException {
+        String[][] terms = new String[entities.size()][];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = analyzer.analyze(entities.get(i));
+        }
+        return Arrays.asList(terms);
+    }
+
+    private static Document doc(String title, String description, String subject, String creator,
+                                String contributor, String type, int year) {
+        Document doc = new Document();
+        doc.add(new TextField("title", title, Field.Store.NO));
+        doc.add(new TextField("description", description, Field.Store.NO));
+        doc.add(new TextField("subject", subject, Field.Store.NO));
+        doc.add(new TextField("creator", creator, Field.Store.NO));
+        doc.add(new TextField("contributor", contributor, Field.Store.NO));
+        doc.add(new StringField("type", type, Field.Store.YES));
+        doc.add(new IntPoint(DublinCoreParser.YEAR_FIELD, year));
+        doc.add(new NumericDocValuesField(DublinCoreParser.YEAR_FIELD, year));
+        return doc;
+    }
+}
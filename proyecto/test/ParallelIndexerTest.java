@@ -0,0 +1,144 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * ParallelIndexer builds the same index as the single-threaded walk of IndexFiles, and every file of a sharded
+ * index goes to the shard of its path.
+ */
+public class ParallelIndexerTest {
+
+    private static final int FILES = 60;
+    private static final String[] WORDS = {"genomas", "filogenia", "robots", "redes", "aves", "bacterias"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File docs;
+
+    @Before
+    public void setUp() throws IOException {
+        docs = folder.newFolder("docs");
+        for (int i = 0; i < FILES; i++) {
+            File dir = new File(docs, "dir-" + i % 4 + (i % 3 == 0 ? "/sub" : ""));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can not create " + dir);
+            }
+            String description = WORDS[i % WORDS.length] + " " + WORDS[i * 7 % WORDS.length] + " de " + i;
+            IndexStateTest.write(dir, "doc-" + i + ".xml", description, 1_000_000L);
+        }
+    }
+
+    @Test
+    public void indexesAsTheSingleThreadedWalk() throws IOException {
+        Directory expected = new ByteBuffersDirectory();
+        try (IndexWriter writer = writer(expected)) {
+            IndexFiles.indexDocs(writer, docs, null);
+        }
+        Directory actual = new ByteBuffersDirectory();
+        try (IndexWriter writer = writer(actual)) {
+            new ParallelIndexer(new IndexWriter[]{writer}, 4, null).index(docs);
+        }
+
+        try (DirectoryReader single = DirectoryReader.open(expected);
+             DirectoryReader parallel = DirectoryReader.open(actual)) {
+            assertEquals(FILES, single.numDocs());
+            assertEquals(FILES, parallel.numDocs());
+            for (String word : new String[]{"genom", "filogeni", "robots"}) {
+                Map<String, Float> scores = scores(single, word);
+                assertEquals(FILES / WORDS.length, scores.size());
+                assertEquals(scores, scores(parallel, word));
+            }
+        }
+    }
+
+    @Test
+    public void routesEachFileToTheShardOfItsPath() throws IOException {
+        int shards = 3;
+        Directory[] dirs = new Directory[shards];
+        IndexWriter[] writers = new IndexWriter[shards];
+        for (int i = 0; i < shards; i++) {
+            dirs[i] = new ByteBuffersDirectory();
+            writers[i] = writer(dirs[i]);
+        }
+        try {
+            new ParallelIndexer(writers, 2, null).index(docs);
+        } finally {
+            IOUtils.close(writers);
+        }
+
+        int total = 0;
+        for (int i = 0; i < shards; i++) {
+            try (DirectoryReader reader = DirectoryReader.open(dirs[i])) {
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    assertEquals(i, Shards.shardOf(reader.document(doc).get("path"), shards));
+                }
+                total += reader.numDocs();
+            }
+        }
+        assertEquals(FILES, total);
+    }
+
+    @Test
+    public void skipsTheUnchangedFiles() throws IOException {
+        Directory dir = new ByteBuffersDirectory();
+        for (int run = 0; run < 2; run++) {
+            IndexState state = IndexState.load(dir);
+            try (IndexWriter writer = writer(dir)) {
+                new ParallelIndexer(new IndexWriter[]{writer}, 4, new IndexState[]{state}).index(docs);
+            }
+            String expected = run == 0 ? FILES + " indexed, 0 unchanged" : "0 indexed, " + FILES + " unchanged";
+            assertEquals(expected + ", 0 touched without changes, 0 deleted", state.toString());
+        }
+    }
+
+    @Test
+    public void failsWhenAFileCanNotBeRead() throws IOException {
+        Files.createSymbolicLink(new File(docs, "broken.xml").toPath(), new File(docs, "missing.xml").toPath());
+        // an incremental update would delete the documents of the files the walk missed
+        try (IndexWriter writer = writer(new ByteBuffersDirectory())) {
+            assertThrows(IOException.class, () -> new ParallelIndexer(new IndexWriter[]{writer}, 2, null).index(docs));
+        }
+    }
+
+    private static IndexWriter writer(Directory dir) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(new CustomAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        return new IndexWriter(dir, iwc);
+    }
+
+    /**
+     * @return The score of each document matching a term of the description, by path.
+     */
+    private static Map<String, Float> scores(DirectoryReader reader, String term) throws IOException {
+        TopDocs hits = new IndexSearcher(reader).search(new TermQuery(new Term("description", term)), FILES);
+        Map<String, Float> scores = new HashMap<>();
+        for (ScoreDoc hit : hits.scoreDocs) {
+            scores.put(reader.document(hit.doc).get("path"), hit.score);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Date ranges and work types recognized by QueryIntent, and their use by DateDetector and TypeDetector.
+ */
+public class QueryIntentTest {
+
+    @Test
+    public void recognizesAnExplicitRange() {
+        QueryIntent intent = QueryIntent.recognize(
+                "Busco tesis publicadas sobre robótica, publicados entre el año 2010 y 2015", new QueryIntent());
+        assertTrue(intent.hasDateRange());
+        assertEquals(2010, intent.getBeginYear());
+        assertEquals(2015, intent.getEndYear());
+    }
+
+    @Test
+    public void recognizesTheLastYears() {
+        int currentYear = Calendar.getInstance().get(Calendar.YEAR);
+        DateDetector.Range range = new DateDetector().getRangePattern("Trabajos realizados en los últimos 5 años");
+        assertEquals(currentYear - 5, range.getBeginYear());
+        assertEquals(currentYear, range.getEndYear());
+    }
+
+    @Test
+    public void prefersTheExplicitRange() {
+        DateDetector.Range range = new DateDetector().getRangePattern(
+                "publicados en los últimos 3 años o realizados entre los años 2001 y 2004");
+        assertEquals(2001, range.getBeginYear());
+        assertEquals(2004, range.getEndYear());
+    }
+
+    @Test
+    public void keepsTheFirstRange() {
+        DateDetector.Range range = new DateDetector().getRangePattern(
+                "publicados entre el año 2001 y 2004, o publicados entre el año 2008 y 2009");
+        assertEquals(2001, range.getBeginYear());
+        assertEquals(2004, range.getEndYear());
+    }
+
+    @Test
+    public void recognizesNoRange() {
+        assertNull(new DateDetector().getRangePattern("Tesis sobre la historia de Aragón en 1808"));
+    }
+
+    @Test
+    public void recognizesTheWorkTypes() {
+        assertEquals(EnumSet.of(TypeDetector.AcademicWorkType.TFG),
+                TypeDetector.detectWorkType("Busco trabajos de fin de grado sobre robótica"));
+        assertEquals(EnumSet.of(TypeDetector.AcademicWorkType.TFM, TypeDetector.AcademicWorkType.TESIS),
+                TypeDetector.detectWorkType("TFM o Tesis sobre energía"));
+        // works of any kind are both degree and master works
+        assertEquals(EnumSet.of(TypeDetector.AcademicWorkType.TFG, TypeDetector.AcademicWorkType.TFM),
+                TypeDetector.detectWorkType("Trabajos sobre energía"));
+        assertTrue(TypeDetector.detectWorkType("Artículos sobre energía").isEmpty());
+    }
+
+    @Test
+    public void discardsThePreviousIntents() {
+        QueryIntent intent = new QueryIntent();
+        QueryIntent.recognize("tesis publicados entre el año 2001 y 2004", intent);
+        assertSame(intent, QueryIntent.recognize("sobre energía", intent));
+        assertFalse(intent.hasDateRange());
+        assertTrue(intent.getWorkTypes().isEmpty());
+    }
+}
@@ -0,0 +1,163 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Martín Gascón 764429
+ * @author Eduardo Ruiz  764539
+ * Searches of a sharded index: the shards are scored with the statistics of the whole index, so the ranking and
+ * the scores are those of a single index with the same documents, and the results of a repeated query over the
+ * MultiReader of the shards are served by the result cache.
+ */
+public class ShardedSearchTest {
+
+    private static final int SHARDS = 3;
+
+    private static final String[] DESCRIPTIONS = {
+            "genomas de bacterias", "genomas genomas de plantas", "filogenia de las aves",
+            "filogenia y genomas de virus", "robots móviles", "genomas", "redes de sensores", "filogenia molecular",
+            "genomas mitocondriales de aves", "aves de montaña", "robots y genomas", "bacterias del suelo"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService pool;
+    private IndexReader single;
+    private MultiReader sharded;
+
+    @Before
+    public void setUp() throws IOException {
+        File docs = folder.newFolder("docs");
+        for (int i = 0; i < DESCRIPTIONS.length; i++) {
+            IndexStateTest.write(docs, "doc-" + i + ".xml", DESCRIPTIONS[i], 1_000_000L);
+        }
+
+        Directory singleDir = new ByteBuffersDirectory();
+        try (IndexWriter writer = writer(singleDir)) {
+            IndexFiles.indexDocs(writer, docs, null);
+        }
+        single = DirectoryReader.open(singleDir);
+
+        Directory[] shardDirs = new Directory[SHARDS];
+        IndexWriter[] writers = new IndexWriter[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shardDirs[i] = new ByteBuffersDirectory();
+            writers[i] = writer(shardDirs[i]);
+        }
+        try {
+            new ParallelIndexer(writers, 2, null).index(docs);
+        } finally {
+            IOUtils.close(writers);
+        }
+        IndexReader[] shards = new IndexReader[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = DirectoryReader.open(shardDirs[i]);
+        }
+        sharded = new MultiReader(shards);
+        pool = Executors.newFixedThreadPool(SHARDS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        IOUtils.close(single, sharded);
+    }
+
+    @Test
+    public void ranksAsASingleIndex() throws IOException {
+        assertEquals(single.numDocs(), sharded.numDocs());
+
+        TopDocs expected = new IndexSearcher(single).search(query(), DESCRIPTIONS.length);
+        TopDocs actual = new ShardedSearcher(sharded, pool).search(query(), DESCRIPTIONS.length);
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        // the ties are broken by doc id, which depends on the layout, so each document is compared by its score
+        Map<String, Float> scores = new HashMap<>();
+        for (ScoreDoc hit : expected.scoreDocs) {
+            scores.put(path(single, hit.doc), hit.score);
+        }
+        for (int i = 0; i < actual.scoreDocs.length; i++) {
+            ScoreDoc hit = actual.scoreDocs[i];
+            assertEquals(expected.scoreDocs[i].score, hit.score, 1e-6f);
+            assertEquals(scores.get(path(sharded, hit.doc)), hit.score, 1e-6f);
+        }
+    }
+
+    @Test
+    public void cachesTheResultsOfTheShards() throws IOException {
+        ShardedSearcher searcher = new ShardedSearcher(sharded, pool);
+        QueryResultCache cache = new QueryResultCache(16);
+        AtomicInteger searches = new AtomicInteger();
+        QueryResultCache.Search search = () -> {
+            searches.incrementAndGet();
+            return searcher.search(query(), 10);
+        };
+
+        TopDocs first = cache.search(sharded, query(), 10, null, search);
+        TopDocs second = cache.search(sharded, query(), 10, null, search);
+        assertSame(first, second);
+        assertEquals(1, searches.get());
+        assertTrue(cache.toString(), cache.toString().startsWith("cache: 1 hits, 1 misses"));
+
+        // a MultiReader over the same shards searches the same documents
+        try (MultiReader reopened = new MultiReader(readers(sharded), false)) {
+            assertSame(first, cache.search(reopened, query(), 10, null, search));
+        }
+        assertEquals(1, searches.get());
+    }
+
+    private static IndexReader[] readers(MultiReader reader) {
+        IndexReader[] shards = new IndexReader[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = reader.getContext().children().get(i).reader();
+        }
+        return shards;
+    }
+
+    private static Query query() {
+        return new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("description", "genom")), BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term("description", "filogeni")), BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term("description", "aves")), BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    private static IndexWriter writer(Directory dir) throws IOException {
+        return new IndexWriter(dir, new IndexWriterConfig(new CustomAnalyzer()));
+    }
+
+    private static String path(IndexReader reader, int doc) throws IOException {
+        return reader.document(doc).get("path");
+    }
+}